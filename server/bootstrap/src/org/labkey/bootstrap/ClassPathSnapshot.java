@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2026 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import static org.labkey.bootstrap.ManifestProperties.addFiles;
+import static org.labkey.bootstrap.ManifestProperties.getInt;
+import static org.labkey.bootstrap.ManifestProperties.getLong;
+import static org.labkey.bootstrap.ManifestProperties.getRequired;
+import static org.labkey.bootstrap.ManifestProperties.setFiles;
+
+/**
+ * The pipeline lib jars and custom Spring config files that {@link PipelineBootstrapConfig} found on a previous run,
+ * saved alongside the {@link ModuleCache} manifest so that later runs with the same directories can skip listing the
+ * lib directories and walking the config directory tree. It's keyed by the last modified time of every directory
+ * that was searched, since adding, removing, or renaming a file changes its directory's time. Changes to the contents
+ * of files don't matter, since only their names are saved. Each combination of directories gets its own snapshot.
+ */
+public class ClassPathSnapshot
+{
+    private static final String VERSION = "1";
+    private static final String FILE_PREFIX = "labkey-classpath-";
+    private static final String FILE_EXTENSION = ".properties";
+
+    private final List<File> _libJars;
+    private final List<File> _configFiles;
+
+    private ClassPathSnapshot(List<File> libJars, List<File> configFiles)
+    {
+        _libJars = libJars;
+        _configFiles = configFiles;
+    }
+
+    /** Shares its switch with the module manifest, {@link ModuleCache#ENABLED_PROPERTY} */
+    public static boolean isEnabled()
+    {
+        return ModuleCache.isEnabled();
+    }
+
+    public List<File> getLibJars()
+    {
+        return _libJars;
+    }
+
+    public List<File> getConfigFiles()
+    {
+        return _configFiles;
+    }
+
+    /** @return the snapshot for these directories, or null if there isn't one or any of the directories has changed */
+    public static ClassPathSnapshot load(File webAppDirectory, List<File> libDirs, File configDir, SimpleLogger log)
+    {
+        File file = getFile(webAppDirectory, libDirs, configDir);
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath()))
+        {
+            props.load(in);
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to read class path snapshot " + file + ": " + e);
+            return null;
+        }
+
+        try
+        {
+            if (!VERSION.equals(props.getProperty("version")) || !getKey(libDirs, configDir).equals(props.getProperty("key")))
+                return null;
+
+            int dirCount = getInt(props, "dirs");
+            for (int i = 0; i < dirCount; i++)
+            {
+                File dir = new File(getRequired(props, "dir." + i + ".path"));
+                if (dir.lastModified() != getLong(props, "dir." + i + ".modified"))
+                {
+                    log.info("Class path snapshot is out of date (" + dir + " has changed), searching for jars and config files");
+                    return null;
+                }
+            }
+            List<File> libJars = new ArrayList<>();
+            List<File> configFiles = new ArrayList<>();
+            addFiles(props, "libJar.", libJars);
+            addFiles(props, "configFile.", configFiles);
+            return new ClassPathSnapshot(libJars, configFiles);
+        }
+        catch (RuntimeException e)
+        {
+            // A missing or malformed property
+            log.info("Ignoring invalid class path snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Save what was found in the searched directories. Skipped if any of them changed in the last couple of seconds,
+     * since a file added in the same tick as the snapshot wouldn't change the directory's time again.
+     * @param searchedDirs every directory that was listed to find the files, including config subdirectories
+     */
+    public static void write(File webAppDirectory, List<File> libDirs, File configDir, List<File> searchedDirs, List<File> libJars, List<File> configFiles, SimpleLogger log)
+    {
+        Properties props = new Properties();
+        props.setProperty("version", VERSION);
+        props.setProperty("key", getKey(libDirs, configDir));
+
+        long recent = System.currentTimeMillis() - BaseComparator.FILE_TIMESTAMP_ERROR;
+        props.setProperty("dirs", String.valueOf(searchedDirs.size()));
+        for (int i = 0; i < searchedDirs.size(); i++)
+        {
+            long modified = searchedDirs.get(i).lastModified();
+            if (modified >= recent)
+                return;
+            props.setProperty("dir." + i + ".path", searchedDirs.get(i).getAbsolutePath());
+            props.setProperty("dir." + i + ".modified", String.valueOf(modified));
+        }
+        setFiles(props, "libJar.", libJars);
+        setFiles(props, "configFile.", configFiles);
+
+        try
+        {
+            ManifestProperties.store(props, getFile(webAppDirectory, libDirs, configDir).toPath(), "Class path found by " + PipelineBootstrapConfig.class.getName() + ". Delete this file to search again.");
+        }
+        catch (IOException e)
+        {
+            // Most likely a read-only web app, which just means searching every time
+        }
+    }
+
+    /** Identifies the combination of directories, both in the file name and, in case of collisions, inside it */
+    private static String getKey(List<File> libDirs, File configDir)
+    {
+        StringBuilder key = new StringBuilder();
+        for (File libDir : libDirs)
+        {
+            key.append(libDir.getAbsolutePath()).append(File.pathSeparatorChar);
+        }
+        key.append('|');
+        if (null != configDir)
+            key.append(configDir.getAbsolutePath());
+        return key.toString();
+    }
+
+    private static File getFile(File webAppDirectory, List<File> libDirs, File configDir)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(getKey(libDirs, configDir).getBytes(StandardCharsets.UTF_8));
+        return new File(new File(webAppDirectory, "WEB-INF"), FILE_PREFIX + Long.toHexString(crc.getValue()) + FILE_EXTENSION);
+    }
+}
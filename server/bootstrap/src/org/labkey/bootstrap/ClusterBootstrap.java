@@ -31,43 +31,61 @@
     public static void main(String... rawArgs) throws Throwable
     {
         PipelineBootstrapConfig config = null;
+        ClusterWorker worker = null;
         try
         {
             config = new PipelineBootstrapConfig(rawArgs, false);
+            ArgumentParser args = new ArgumentParser(rawArgs);
+            if (args.hasOption(ClusterWorker.SPOOL_DIR))
+            {
+                worker = new ClusterWorker(config, args);
+            }
         }
         catch (ConfigException e)
         {
             printUsage(e.getMessage());
         }
 
+        if (worker != null)
+        {
+            worker.run();
+            // Explicitly exit as jobs may have left non-daemon threads behind
+            System.exit(0);
+        }
+
         ClassLoader classLoader = config.getClassLoader();
         Thread.currentThread().setContextClassLoader(classLoader);
 
-        Throwable failure = null;
+        Throwable failure = runJob(config, classLoader, config.getProgramArgs());
 
+        if (failure != null)
+        {
+            failure.printStackTrace(System.err);
+            // Explicitly exit as non-daemon threads may have started
+            System.exit(1);
+        }
+    }
+
+    /** @return why the job failed, or null if it succeeded */
+    static Throwable runJob(PipelineBootstrapConfig config, ClassLoader classLoader, String[] programArgs)
+    {
         try
         {
             Class<?> runnerClass = classLoader.loadClass("org.labkey.pipeline.cluster.ClusterStartup");
             Object runner = runnerClass.getDeclaredConstructor().newInstance();
             Method runMethod = runnerClass.getMethod("run", List.class, List.class, List.class, File.class, String[].class);
 
-            runMethod.invoke(runner, config.getModuleFiles(), config.getModuleSpringConfigFiles(), config.getCustomSpringConfigFiles(), config.getWebappDir(), config.getProgramArgs());
+            runMethod.invoke(runner, config.getModuleFiles(), config.getModuleSpringConfigFiles(), config.getCustomSpringConfigFiles(), config.getWebappDir(), programArgs);
+            return null;
         }
         catch (InvocationTargetException | InstantiationException e)
         {
             System.err.println("Unwrapping " + e.getClass().getSimpleName());
-            failure = e.getCause() == null ? e : e.getCause();
+            return e.getCause() == null ? e : e.getCause();
         }
         catch (Throwable t)
         {
-            failure = t;
-        }
-
-        if (failure != null)
-        {
-            failure.printStackTrace(System.err);
-            // Explicitly exit as non-daemon threads may have started
-            System.exit(1);
+            return t;
         }
     }
 
@@ -80,6 +98,7 @@ private static void printUsage(String error)
         }
 
         System.err.println("java " + ClusterBootstrap.class.getName() + " [-" + PipelineBootstrapConfig.WEBAPP_DIR + "=<WEBAPP_DIR>] [-" + PipelineBootstrapConfig.CONFIG_DIR + "=<CONFIG_DIR>] [-" + PipelineBootstrapConfig.PIPELINE_LIB_DIR + "=<PIPELINE_LIB_DIR>] <JOB_XML_FILE>");
+        System.err.println("java " + ClusterBootstrap.class.getName() + " [-" + PipelineBootstrapConfig.WEBAPP_DIR + "=<WEBAPP_DIR>] [-" + PipelineBootstrapConfig.CONFIG_DIR + "=<CONFIG_DIR>] [-" + PipelineBootstrapConfig.PIPELINE_LIB_DIR + "=<PIPELINE_LIB_DIR>] -" + ClusterWorker.SPOOL_DIR + "=<SPOOL_DIR> [-" + ClusterWorker.MAX_JOBS + "=<" + ClusterWorker.MAX_JOBS_DEFAULT + ">] [-" + ClusterWorker.MAX_HEAP_PERCENT + "=<" + ClusterWorker.MAX_HEAP_PERCENT_DEFAULT + ">]");
 
         System.exit(1);
     }
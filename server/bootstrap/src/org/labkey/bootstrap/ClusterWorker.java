@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2026 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Long-lived alternative to launching {@link ClusterBootstrap} once per job. The worker extracts modules and loads the
+ * pipeline lib jars once, then runs each job XML file that appears in its spool directory through ClusterStartup.
+ * Jobs are submitted by writing the file under another name and renaming it to *.xml once complete. Each job is
+ * claimed by moving it into the spool's "running" directory, which is atomic, so several workers can share a spool.
+ *
+ * ClusterStartup and the modules keep state in static fields, so each job gets its own class loader for the module
+ * jars, on top of the shared one for the pipeline lib jars, and runs on its own thread with that as its context class
+ * loader. Its console output goes to a log file next to it, including anything logged through Log4j console appenders,
+ * since the worker installs a single System.out and System.err whose destination it switches from job to job. Log
+ * files named in the Log4j configuration are shared by every job. Finished jobs move to "done" or "failed".
+ *
+ * A worker holds a lock on each job's log for as long as the job is in the running directory. Jobs whose log isn't
+ * locked were left there by a worker that died, and are moved to "failed", since rerunning a job that may have
+ * crashed its worker could do the same to the next one.
+ *
+ * After a set number of jobs, or once the heap stays too full after a garbage collection, the worker exits so that
+ * whatever supervises it can start a fresh one.
+ */
+public class ClusterWorker
+{
+    /** Option that turns on worker mode, with the spool directory as its value */
+    public static final String SPOOL_DIR = "worker";
+    public static final String MAX_JOBS = "workerMaxJobs";
+    public static final String MAX_HEAP_PERCENT = "workerMaxHeapPercent";
+
+    static final int MAX_JOBS_DEFAULT = 100;
+    static final int MAX_HEAP_PERCENT_DEFAULT = 75;
+
+    static final String RUNNING_DIR = "running";
+    static final String DONE_DIR = "done";
+    static final String FAILED_DIR = "failed";
+
+    private static final String JOB_EXTENSION = ".xml";
+    private static final String LOG_EXTENSION = ".log";
+    private static final long POLL_INTERVAL_MILLIS = 500;
+    // How often an idle worker looks for jobs abandoned by other workers
+    private static final long RECOVERY_INTERVAL_MILLIS = 60_000;
+
+    private final PipelineBootstrapConfig _config;
+    private final File _spoolDir;
+    private final File _runningDir;
+    private final File _doneDir;
+    private final File _failedDir;
+    private final int _maxJobs;
+    private final int _maxHeapPercent;
+
+    private JobOutputStream _output;
+
+    public ClusterWorker(PipelineBootstrapConfig config, ArgumentParser args) throws ConfigException
+    {
+        _config = config;
+        _spoolDir = new File(args.getOption(SPOOL_DIR)).getAbsoluteFile();
+        _runningDir = new File(_spoolDir, RUNNING_DIR);
+        _doneDir = new File(_spoolDir, DONE_DIR);
+        _failedDir = new File(_spoolDir, FAILED_DIR);
+        _maxJobs = getIntOption(args, MAX_JOBS, MAX_JOBS_DEFAULT);
+        _maxHeapPercent = getIntOption(args, MAX_HEAP_PERCENT, MAX_HEAP_PERCENT_DEFAULT);
+
+        for (File dir : List.of(_spoolDir, _runningDir, _doneDir, _failedDir))
+        {
+            dir.mkdirs();
+            if (!dir.isDirectory())
+            {
+                throw new ConfigException("Could not create worker spool directory at " + dir.getAbsolutePath());
+            }
+        }
+    }
+
+    private static int getIntOption(ArgumentParser args, String option, int defaultValue) throws ConfigException
+    {
+        if (!args.hasOption(option))
+            return defaultValue;
+        try
+        {
+            int value = Integer.parseInt(args.getOption(option));
+            if (value > 0)
+                return value;
+        }
+        catch (NumberFormatException ignored)
+        {
+        }
+        throw new ConfigException("Invalid value for -" + option + ", expected a positive integer: " + args.getOption(option));
+    }
+
+    /** Runs jobs until it's time to recycle the worker */
+    public void run() throws InterruptedException
+    {
+        // Before anything can capture the original streams, such as a Log4j console appender
+        _output = new JobOutputStream(System.out);
+        PrintStream output = new PrintStream(_output, true);
+        System.setOut(output);
+        System.setErr(output);
+
+        ClassLoader libraryClassLoader = _config.getLibraryClassLoader();
+        recoverAbandonedJobs();
+        long lastRecovery = System.currentTimeMillis();
+        System.out.println("Pipeline worker ready, waiting for jobs in " + _spoolDir);
+
+        int jobCount = 0;
+        while (true)
+        {
+            ClaimedJob job = claimNextJob();
+            if (job == null)
+            {
+                if (System.currentTimeMillis() - lastRecovery >= RECOVERY_INTERVAL_MILLIS)
+                {
+                    recoverAbandonedJobs();
+                    lastRecovery = System.currentTimeMillis();
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+                continue;
+            }
+
+            runJob(job, libraryClassLoader);
+            jobCount++;
+
+            if (jobCount >= _maxJobs)
+            {
+                System.out.println("Pipeline worker exiting after " + jobCount + " job(s)");
+                return;
+            }
+            int heapPercent = getUsedHeapPercent();
+            if (heapPercent >= _maxHeapPercent)
+            {
+                System.out.println("Pipeline worker exiting after " + jobCount + " job(s) because " + heapPercent + "% of the heap is still in use");
+                return;
+            }
+        }
+    }
+
+    /** A job in the running directory, with its log open and, where the file system allows, locked */
+    private static class ClaimedJob
+    {
+        private final File _job;
+        private final File _log;
+        private final FileChannel _logChannel;
+
+        private ClaimedJob(File job, File log, FileChannel logChannel)
+        {
+            _job = job;
+            _log = log;
+            _logChannel = logChannel;
+        }
+    }
+
+    /** @return the claimed job, now in the running directory, or null if there are no jobs waiting */
+    private ClaimedJob claimNextJob()
+    {
+        File[] jobs = _spoolDir.listFiles((dir, name) -> name.toLowerCase().endsWith(JOB_EXTENSION));
+        if (null == jobs || jobs.length == 0)
+            return null;
+
+        // Oldest first
+        Arrays.sort(jobs, Comparator.comparingLong(File::lastModified));
+        for (File job : jobs)
+        {
+            File claimed = new File(_runningDir, job.getName());
+            File log = new File(_runningDir, job.getName() + LOG_EXTENSION);
+            FileChannel channel = null;
+            boolean createdLog = false;
+            try
+            {
+                // Lock the log before the job shows up in the running directory, so no other worker ever sees it
+                // there unlocked and takes it for abandoned
+                try
+                {
+                    channel = FileChannel.open(log.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    createdLog = true;
+                }
+                catch (FileAlreadyExistsException e)
+                {
+                    channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE);
+                }
+                if (!tryLock(channel, true))
+                {
+                    // Another worker is claiming or running a job with this name
+                    closeQuietly(channel);
+                    continue;
+                }
+
+                Files.move(job.toPath(), claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                // Anything already in the log is from an earlier job with the same name
+                channel.truncate(0);
+                return new ClaimedJob(claimed, log, channel);
+            }
+            catch (NoSuchFileException e)
+            {
+                // Another worker claimed it first
+            }
+            catch (IOException e)
+            {
+                System.err.println("Unable to claim job " + job + ": " + e);
+            }
+
+            if (createdLog)
+                log.delete();
+            closeQuietly(channel);
+        }
+        return null;
+    }
+
+    /**
+     * @param lockUnsupported what to return if the file system doesn't support locks
+     * @return whether this process now holds the lock on the channel's file
+     */
+    private static boolean tryLock(FileChannel channel, boolean lockUnsupported)
+    {
+        try
+        {
+            FileLock lock = channel.tryLock();
+            // The lock is released when the channel is closed
+            return lock != null;
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Held by this process
+            return false;
+        }
+        catch (IOException e)
+        {
+            return lockUnsupported;
+        }
+    }
+
+    /** Move jobs that were left in the running directory by workers that died to the failed directory */
+    private void recoverAbandonedJobs()
+    {
+        File[] jobs = _runningDir.listFiles((dir, name) -> name.toLowerCase().endsWith(JOB_EXTENSION));
+        if (null == jobs)
+            return;
+
+        for (File job : jobs)
+        {
+            File log = new File(_runningDir, job.getName() + LOG_EXTENSION);
+            boolean recovered = false;
+            // Workers create and lock the log before moving a job in, so a job without one is on its way out
+            try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+            {
+                // Without lock support there's no telling whether a worker is still running it
+                if (tryLock(channel, false) && job.exists())
+                {
+                    channel.write(ByteBuffer.wrap((System.lineSeparator() + "Job abandoned by a pipeline worker that stopped before it finished" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+                    moveQuietly(job, _failedDir);
+                    recovered = true;
+                }
+            }
+            catch (NoSuchFileException ignored)
+            {
+            }
+            catch (IOException e)
+            {
+                System.err.println("Unable to check whether job " + job + " was abandoned: " + e);
+            }
+
+            if (recovered)
+            {
+                moveQuietly(log, _failedDir);
+                System.out.println("Moved job " + job.getName() + ", abandoned by another pipeline worker, to " + _failedDir);
+            }
+        }
+    }
+
+    private void runJob(ClaimedJob claimedJob, ClassLoader libraryClassLoader) throws InterruptedException
+    {
+        File job = claimedJob._job;
+        List<String> programArgs = new ArrayList<>(Arrays.asList(_config.getProgramArgs()));
+        programArgs.add(job.getAbsolutePath());
+
+        System.out.println("Starting job " + job.getName());
+        long start = System.currentTimeMillis();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        OutputStream jobOut = Channels.newOutputStream(claimedJob._logChannel);
+        // A fresh copy of the module classes, so no static state carries over from earlier jobs
+        try (URLClassLoader classLoader = _config.createModuleClassLoader(libraryClassLoader))
+        {
+            _output.setTarget(jobOut);
+            try
+            {
+                // A new thread for each job, so nothing it leaves in thread locals carries over either
+                Thread thread = new Thread(() -> failure.set(ClusterBootstrap.runJob(_config, classLoader, programArgs.toArray(new String[0]))), "pipeline-job-" + job.getName());
+                thread.setContextClassLoader(classLoader);
+                thread.start();
+                thread.join();
+
+                if (failure.get() != null)
+                    failure.get().printStackTrace(System.err);
+            }
+            finally
+            {
+                System.out.flush();
+                _output.setTarget(null);
+            }
+        }
+        catch (IOException e)
+        {
+            // Closing the class loader
+            System.err.println("Unable to close the class loader for job " + job.getName() + ": " + e);
+        }
+
+        // Move the job out of the running directory before releasing the lock on its log, so it's never seen as abandoned
+        File targetDir = failure.get() == null ? _doneDir : _failedDir;
+        moveQuietly(job, targetDir);
+        closeQuietly(claimedJob._logChannel);
+        moveQuietly(claimedJob._log, targetDir);
+        System.out.println((failure.get() == null ? "Completed" : "Failed") + " job " + job.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        if (null == channel)
+            return;
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    private static void moveQuietly(File file, File targetDir)
+    {
+        try
+        {
+            Files.move(file.toPath(), new File(targetDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to move " + file + " to " + targetDir + ": " + e);
+        }
+    }
+
+    /** Sends everything written to System.out and System.err to the running job's log, or to the worker's own output between jobs */
+    private static class JobOutputStream extends OutputStream
+    {
+        private final OutputStream _workerOutput;
+        private OutputStream _target;
+
+        private JobOutputStream(OutputStream workerOutput)
+        {
+            _workerOutput = workerOutput;
+            _target = workerOutput;
+        }
+
+        /** @param target the job's log, or null to go back to the worker's output */
+        private synchronized void setTarget(OutputStream target)
+        {
+            _target = target == null ? _workerOutput : target;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException
+        {
+            _target.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            _target.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException
+        {
+            _target.flush();
+        }
+
+        @Override
+        public void close()
+        {
+            // The log and the worker's output are closed by their owners
+        }
+    }
+
+    /**
+     * Uses each heap pool's usage as of its most recent garbage collection, so this reflects what the finished jobs
+     * left behind rather than garbage they haven't released, without forcing a full collection after every job
+     */
+    private static int getUsedHeapPercent()
+    {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            // Null for pools that the JVM doesn't track after collections
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null)
+                used += usage.getUsed();
+        }
+        return (int) (used * 100 / Runtime.getRuntime().maxMemory());
+    }
+}
@@ -27,6 +27,7 @@ public class CommonsLogger implements SimpleLogger
     private Object _log = null;
     private Method _errorEx = null;
     private Method _error = null;
+    private Method _warn = null;
     private Method _info = null;
 
     public CommonsLogger(Class c)
@@ -42,6 +43,7 @@ public CommonsLogger(Class c)
 
             _errorEx = interfaceClass.getMethod("error", Object.class, Throwable.class);
             _error = interfaceClass.getMethod("error", Object.class);
+            _warn = interfaceClass.getMethod("warn", Object.class);
             _info = interfaceClass.getMethod("info", Object.class);
         }
         catch (Exception x)
@@ -89,6 +91,21 @@ public void error(Object message)
     }
 
 
+    @Override
+    public void warn(Object message)
+    {
+        try
+        {
+            if (null != _log && null != _warn)
+                _warn.invoke(_log, message);
+        }
+        catch (Exception ignored)
+        {
+
+        }
+    }
+
+
     @Override
     public void info(Object message)
     {
@@ -15,11 +15,14 @@
  */
 package org.labkey.bootstrap;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.channels.FileChannel;
@@ -33,6 +36,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /*
 * User: Dave
@@ -47,6 +52,11 @@
  */
 public class ExplodedModule
 {
+    public static final String PRECOMPRESSED_EXTENSION = ".gz";
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of(".js", ".css", ".html", ".htm", ".svg", ".json", ".map", ".txt", ".xml");
+    // Below this size, compression saves less than the overhead of serving a separate file
+    private static final long MIN_PRECOMPRESS_SIZE = 1024;
+
     private static final String WEB_CONTENT_PATH = "web";
     private static final String LIB_PATH = "lib";
     private static final String CONFIG_PATH = "config";
@@ -130,6 +140,15 @@ public List<File> getSpringConfigFiles()
     }
 
     public Set<File> deployToWebApp(File webAppDirectory) throws IOException
+    {
+        return deployToWebApp(webAppDirectory, false);
+    }
+
+    /**
+     * @param precompressWebResources whether to also write gzip'd copies of compressible web resources next to the
+     * originals, so they can be served without compressing them on every request
+     */
+    public Set<File> deployToWebApp(File webAppDirectory, boolean precompressWebResources) throws IOException
     {
         //files to be deployed:
         // - JSP jar files to WEB-INF/jsp
@@ -144,9 +163,100 @@ public Set<File> deployToWebApp(File webAppDirectory) throws IOException
 
         copyFiles(getFiles(CONFIG_PATH, _springConfigFilter), webInfDir, webAppFiles);
 
+        // Only for modules deployed from an archive; in development scenarios, resources are edited in place
+        if (null != _sourceModuleFile && precompressWebResources)
+            precompressWebResources();
+
         return webAppFiles;
     }
 
+    public static boolean isCompressible(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE_EXTENSIONS.contains(fileName.substring(dot).toLowerCase());
+    }
+
+    /**
+     * Write a gzip'd copy of each compressible file under the module's web directory. The copies are given the same
+     * last modified time as their originals, which is how stale copies are detected.
+     * @return the number of files that were compressed
+     */
+    public int precompressWebResources() throws IOException
+    {
+        return precompressBranch(new File(getRootDirectory(), WEB_CONTENT_PATH));
+    }
+
+    private static int precompressBranch(File dir) throws IOException
+    {
+        var list = dir.listFiles();
+        if (null == list)
+            return 0;
+
+        int count = 0;
+        for (File file : list)
+        {
+            if (file.isDirectory())
+            {
+                if (!file.getName().equals("WEB-INF"))
+                    count += precompressBranch(file);
+            }
+            else if (isCompressible(file.getName()) && file.length() >= MIN_PRECOMPRESS_SIZE)
+            {
+                File compressed = new File(dir, file.getName() + PRECOMPRESSED_EXTENSION);
+                if (compressed.lastModified() != file.lastModified())
+                {
+                    try (InputStream in = new FileInputStream(file);
+                         OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(compressed)))
+                         {
+                             {
+                                 def.setLevel(Deflater.BEST_COMPRESSION);
+                             }
+                         })
+                    {
+                        in.transferTo(out);
+                    }
+                    compressed.setLastModified(file.lastModified());
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes the files that {@link #deployToWebApp(File, boolean)} would have copied into the web app directory. Used when
+     * the module itself is being removed.
+     */
+    public void removeFromWebApp(File webAppDirectory)
+    {
+        File webInfDir = new File(webAppDirectory, "WEB-INF");
+
+        removeBranch(new File(getRootDirectory(), WEB_CONTENT_PATH + "/WEB-INF"), webInfDir, null);
+        removeBranch(new File(getRootDirectory(), WEB_CONTENT_PATH), webAppDirectory, _gwtFilter);
+
+        for (File file : getFiles(CONFIG_PATH, _springConfigFilter))
+        {
+            new File(webInfDir, file.getName()).delete();
+        }
+    }
+
+    private static void removeBranch(File rootDir, File targetDir, FilenameFilter filter)
+    {
+        var list = rootDir.listFiles();
+        if (null == list)
+            return;
+
+        for (File file : list)
+        {
+            File destFile = new File(targetDir, file.getName());
+
+            if (file.isDirectory())
+                removeBranch(file, destFile, filter);
+            else if (null == filter || filter.accept(rootDir, file.getName()))
+                destFile.delete();
+        }
+    }
+
     protected List<File> getFiles(String relativeDir, FilenameFilter filter)
     {
         File dir = new File(getRootDirectory(), relativeDir);
@@ -57,6 +57,12 @@ public class LabKeyBootstrapClassLoader extends WebappClassLoader implements Exp
             System.setProperty(headless, "true");
     }
 
+    /**
+     * Context parameter that, when "true", has module web resources precompressed as they're deployed. See
+     * {@link ExplodedModule#deployToWebApp(File, boolean)}.
+     */
+    public static final String PRECOMPRESS_WEB_RESOURCES_PARAMETER = "labkey.precompressWebResources";
+
     private ModuleExtractor _moduleExtractor;
 
     public LabKeyBootstrapClassLoader()
@@ -80,21 +86,26 @@ public void setResources(WebResourceRoot resources)
         super.setResources(resources);
 
         File webappDir = new File(resources.getContext().getDocBase());
-        extract(webappDir);
+        extract(webappDir, Boolean.parseBoolean(resources.getContext().findParameter(PRECOMPRESS_WEB_RESOURCES_PARAMETER)));
+    }
+
+    private void extract(File webappDir, boolean precompressWebResources)
+    {
+        _moduleExtractor = new ModuleExtractor(webappDir, new CommonsLogger(ModuleExtractor.class), precompressWebResources);
+        // Add each module's jars as soon as it and the modules ahead of it in ModuleExtractor.MODULE_ORDER are ready,
+        // so the class path is the same every time. We still return only once every module is done, since Tomcat
+        // scans WEB-INF and looks up ServletContainerInitializers as soon as the loader starts, and those need to see
+        // everything the modules deploy.
+        _moduleExtractor.extractModules(this::addJars);
     }
 
-    private void extract(File webappDir)
+    private void addJars(ExplodedModule exploded)
     {
         try
         {
-            _moduleExtractor = new ModuleExtractor(webappDir, new CommonsLogger(ModuleExtractor.class));
-            var explodedModules = _moduleExtractor.extractModules();
-            for(var exploded : explodedModules)
+            for(URL jarFileUrl : exploded.getJarFileUrls())
             {
-                for(URL jarFileUrl : exploded.getJarFileUrls())
-                {
-                    addURL(jarFileUrl);
-                }
+                addURL(jarFileUrl);
             }
         }
         catch(MalformedURLException e)
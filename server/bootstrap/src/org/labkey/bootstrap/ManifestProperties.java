@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2026 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Reading and writing for the properties files that bootstrap keeps in WEB-INF to skip work on later runs, the
+ * {@link ModuleCache} manifest and the {@link ClassPathSnapshot}. Lists of files are stored as a count under
+ * "prefix.count" and the absolute paths under "prefix.0", "prefix.1", and so on.
+ */
+class ManifestProperties
+{
+    private ManifestProperties()
+    {
+    }
+
+    /**
+     * Write to a temporary file and move it into place, so readers never see a partial file. Each process uses its
+     * own temporary file, so ones writing at the same time can't truncate each other's.
+     */
+    static void store(Properties props, Path file, String comments) throws IOException
+    {
+        Path temp = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try
+        {
+            try (OutputStream out = Files.newOutputStream(temp))
+            {
+                props.store(out, comments);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            try
+            {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException ignored)
+            {
+            }
+            throw e;
+        }
+    }
+
+    static void setFiles(Properties props, String prefix, List<File> files)
+    {
+        props.setProperty(prefix + "count", String.valueOf(files.size()));
+        for (int i = 0; i < files.size(); i++)
+        {
+            props.setProperty(prefix + i, files.get(i).getAbsolutePath());
+        }
+    }
+
+    /** @throws IllegalArgumentException if the count or any of the paths is missing or malformed */
+    static void addFiles(Properties props, String prefix, List<File> files)
+    {
+        int count = getInt(props, prefix + "count");
+        for (int i = 0; i < count; i++)
+        {
+            files.add(new File(getRequired(props, prefix + i)));
+        }
+    }
+
+    static String getRequired(Properties props, String key)
+    {
+        String value = props.getProperty(key);
+        if (value == null)
+            throw new IllegalArgumentException("Missing " + key);
+        return value;
+    }
+
+    static int getInt(Properties props, String key)
+    {
+        return Integer.parseInt(getRequired(props, key));
+    }
+
+    static long getLong(Properties props, String key)
+    {
+        return Long.parseLong(getRequired(props, key));
+    }
+}
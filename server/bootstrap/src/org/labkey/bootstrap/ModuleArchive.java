@@ -24,16 +24,30 @@
 import javax.xml.parsers.SAXParserFactory;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /*
 * User: Dave
@@ -243,12 +257,12 @@ public void extractAll(File targetDirectory) throws IOException
         long startTime = System.currentTimeMillis();
         int fileCount = 0;
         //extract all entries
-        try (JarFile jar = new JarFile(archiveFile))
+        try (JarFile jar = new JarFile(archiveFile); StoredEntries storedEntries = new StoredEntries(archiveFile))
         {
             Enumeration<JarEntry> entries = jar.entries();
             while(entries.hasMoreElements())
             {
-                extractEntry(jar, entries.nextElement(), targetDirectory);
+                extractEntry(jar, entries.nextElement(), targetDirectory, storedEntries);
                 fileCount++;
             }
         }
@@ -263,6 +277,11 @@ public void extractAll(File targetDirectory) throws IOException
     }
 
     public File extractEntry(JarFile jar, JarEntry entry, File targetDirectory) throws IOException
+    {
+        return extractEntry(jar, entry, targetDirectory, null);
+    }
+
+    private File extractEntry(JarFile jar, JarEntry entry, File targetDirectory, StoredEntries storedEntries) throws IOException
     {
         File destFile = new File(targetDirectory, entry.getName());
 
@@ -285,14 +304,24 @@ public File extractEntry(JarFile jar, JarEntry entry, File targetDirectory) thro
 
         if (0 != _jarEntryComparator.compare(entry, destFile))
         {
-            try (BufferedInputStream bIn = new BufferedInputStream(jar.getInputStream(entry)); BufferedOutputStream bOut = new BufferedOutputStream(new FileOutputStream(destFile)))
+            // Entries that were stored without compression, like nested jars in archives packaged that way, can be
+            // copied straight from the archive file without passing through an inflater or our buffers
+            if (null == storedEntries || !storedEntries.copy(entry, destFile))
             {
-                byte[] b = new byte[8192];
-                int i;
-                while ((i = bIn.read(b)) != -1)
+                // JarFile doesn't check the CRC of stored entries, so check it here rather than write out a corrupt
+                // copy of one the fast path rejected
+                CRC32 crc = null == storedEntries || entry.getMethod() != ZipEntry.STORED || entry.getCrc() < 0 ? null : new CRC32();
+                try (BufferedInputStream bIn = new BufferedInputStream(null == crc ? jar.getInputStream(entry) : new CheckedInputStream(jar.getInputStream(entry), crc)); BufferedOutputStream bOut = new BufferedOutputStream(new FileOutputStream(destFile)))
                 {
-                    bOut.write(b, 0, i);
+                    byte[] b = new byte[8192];
+                    int i;
+                    while ((i = bIn.read(b)) != -1)
+                    {
+                        bOut.write(b, 0, i);
+                    }
                 }
+                if (null != crc && crc.getValue() != entry.getCrc())
+                    throw new ZipException("Invalid CRC for " + entry.getName() + ", the module archive may be corrupt");
             }
 
             if (entry.getTime() != -1)
@@ -308,4 +337,140 @@ public File getDefaultExplodedLocation()
     {
         return new File(getFile().getParentFile(), getModuleName());
     }
+
+    /**
+     * Finds where the data for each uncompressed (STORED) entry starts in the archive file, by reading its central
+     * directory. JarFile doesn't expose that. Archives that need Zip64 extensions, which modules never do, simply get
+     * no fast path.
+     */
+    private static class StoredEntries implements Closeable
+    {
+        private static final int END_SIGNATURE = 0x06054b50;
+        private static final int CENTRAL_SIGNATURE = 0x02014b50;
+        private static final int LOCAL_SIGNATURE = 0x04034b50;
+        private static final int END_SIZE = 22;
+        private static final int CENTRAL_HEADER_SIZE = 46;
+        private static final int LOCAL_HEADER_SIZE = 30;
+        // General purpose flag for entries whose CRC and sizes follow their data instead of being in the local header
+        private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+        // Largest piece of an entry to map at once
+        private static final long MAP_SIZE = 16 * 1024 * 1024;
+
+        private final File _file;
+        private FileChannel _channel;
+        // Offset of each stored entry's local header, read when the first one is needed
+        private Map<String, Long> _localHeaderOffsets;
+
+        private StoredEntries(File file)
+        {
+            _file = file;
+        }
+
+        /**
+         * The data is checked against the entry's CRC as it's copied, so that any mistake in locating it shows up as
+         * a fallback to the usual path rather than a corrupt file.
+         * @return whether the entry was stored and has been copied, or false if it needs to be read the usual way, in
+         * which case destFile may hold a partial copy to be overwritten
+         */
+        private boolean copy(JarEntry entry, File destFile) throws IOException
+        {
+            if (entry.getMethod() != ZipEntry.STORED || entry.getSize() < 0 || entry.getCompressedSize() != entry.getSize() || entry.getCrc() < 0)
+                return false;
+
+            if (null == _localHeaderOffsets)
+            {
+                _channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
+                _localHeaderOffsets = readCentralDirectory(_channel);
+            }
+            Long localHeaderOffset = _localHeaderOffsets.get(entry.getName());
+            if (null == localHeaderOffset)
+                return false;
+
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(_channel, header, localHeaderOffset);
+            if (header.getInt(0) != LOCAL_SIGNATURE)
+                return false;
+            // Make sure this is the same entry JarFile found, before trusting the offset
+            long size = entry.getSize();
+            if ((header.getShort(6) & DATA_DESCRIPTOR_FLAG) == 0 && ((header.getInt(14) & 0xffffffffL) != entry.getCrc() || (header.getInt(18) & 0xffffffffL) != size || (header.getInt(22) & 0xffffffffL) != size))
+                return false;
+            long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            if (dataOffset + size > _channel.size())
+                return false;
+
+            // Map the entry's data a piece at a time and write each piece from the same mapping its CRC was computed
+            // from, so the data is only read once
+            CRC32 crc = new CRC32();
+            try (FileChannel out = FileChannel.open(destFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                for (long position = 0; position < size; position += MAP_SIZE)
+                {
+                    MappedByteBuffer data = _channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + position, Math.min(MAP_SIZE, size - position));
+                    crc.update(data.duplicate());
+                    while (data.hasRemaining())
+                    {
+                        out.write(data);
+                    }
+                }
+            }
+            return crc.getValue() == entry.getCrc();
+        }
+
+        private static Map<String, Long> readCentralDirectory(FileChannel channel) throws IOException
+        {
+            // The end of central directory record is last, followed only by a comment of up to 64K
+            long fileSize = channel.size();
+            int tailSize = (int) Math.min(fileSize, END_SIZE + 0xffff);
+            ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, tail, fileSize - tailSize);
+            int end = tailSize - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE)
+            {
+                end--;
+            }
+            if (end < 0)
+                return Map.of();
+
+            long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+            long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+            if (directorySize > Integer.MAX_VALUE || directoryOffset == 0xffffffffL || directoryOffset + directorySize > fileSize)
+                return Map.of();
+
+            ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, directory, directoryOffset);
+            Map<String, Long> offsets = new HashMap<>();
+            int position = 0;
+            while (position + CENTRAL_HEADER_SIZE <= directorySize && directory.getInt(position) == CENTRAL_SIGNATURE)
+            {
+                int method = directory.getShort(position + 10) & 0xffff;
+                int nameLength = directory.getShort(position + 28) & 0xffff;
+                int extraLength = directory.getShort(position + 30) & 0xffff;
+                int commentLength = directory.getShort(position + 32) & 0xffff;
+                long localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+                if (method == ZipEntry.STORED && localHeaderOffset != 0xffffffffL)
+                {
+                    String name = new String(directory.array(), position + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+                    offsets.put(name, localHeaderOffset);
+                }
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return offsets;
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, position + buffer.position()) < 0)
+                    throw new EOFException();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (null != _channel)
+                _channel.close();
+        }
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2026 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import static org.labkey.bootstrap.ManifestProperties.addFiles;
+import static org.labkey.bootstrap.ManifestProperties.getInt;
+import static org.labkey.bootstrap.ManifestProperties.getLong;
+import static org.labkey.bootstrap.ManifestProperties.getRequired;
+import static org.labkey.bootstrap.ManifestProperties.setFiles;
+
+/**
+ * Manifest of a completed module extraction, written to the web app's WEB-INF directory once every module has been
+ * extracted and deployed. It records the identity (size and last modified time) of each .module archive and of the
+ * directories that hold them, along with the resulting exploded module directories, jars, and Spring config files.
+ * Short-lived processes like cluster pipeline jobs check it with a handful of stats per module and, if nothing has
+ * changed, build their class loader from it without opening any archives or touching the exploded directories.
+ */
+public class ModuleCache
+{
+    /** System property that can be set to "false" to always extract modules rather than trusting the manifest */
+    public static final String ENABLED_PROPERTY = "labkey.moduleCache";
+    public static final String FILE_NAME = "labkey-module-cache.properties";
+
+    // Version 2 lists the modules in ModuleExtractor.MODULE_ORDER
+    private static final String VERSION = "2";
+
+    private final List<File> _moduleDirectories;
+    private final List<File> _jarFiles;
+    private final List<File> _springConfigFiles;
+
+    private ModuleCache(List<File> moduleDirectories, List<File> jarFiles, List<File> springConfigFiles)
+    {
+        _moduleDirectories = moduleDirectories;
+        _jarFiles = jarFiles;
+        _springConfigFiles = springConfigFiles;
+    }
+
+    public static boolean isEnabled()
+    {
+        return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+
+    public static File getFile(File webAppDirectory)
+    {
+        return new File(new File(webAppDirectory, "WEB-INF"), FILE_NAME);
+    }
+
+    /** @return the exploded module directories, in {@link ModuleExtractor#MODULE_ORDER} like {@link ModuleExtractor#getExplodedModuleDirectories()} */
+    public List<File> getModuleDirectories()
+    {
+        return _moduleDirectories;
+    }
+
+    public List<File> getJarFiles()
+    {
+        return _jarFiles;
+    }
+
+    public List<URL> getJarFileUrls() throws MalformedURLException
+    {
+        List<URL> urls = new ArrayList<>(_jarFiles.size());
+        for (File jarFile : _jarFiles)
+        {
+            urls.add(jarFile.toURI().toURL());
+        }
+        return urls;
+    }
+
+    public List<File> getSpringConfigFiles()
+    {
+        return _springConfigFiles;
+    }
+
+    /**
+     * Read the manifest and check that it still describes the module directories. That takes one stat for each
+     * directory that holds modules, and two for each module: its archive and its exploded directory. Adding or
+     * removing a module changes the last modified time of the directory that holds it, and extraction sets each
+     * exploded directory's time to match its archive, so together these catch anything that would need re-extracting.
+     * @return the cache, or null if there's no manifest or anything has changed since it was written
+     */
+    public static ModuleCache load(File webAppDirectory, SimpleLogger log)
+    {
+        File file = getFile(webAppDirectory);
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath()))
+        {
+            props.load(in);
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to read module cache manifest " + file + ", extracting modules instead: " + e);
+            return null;
+        }
+
+        if (!VERSION.equals(props.getProperty("version")))
+            return null;
+
+        try
+        {
+            File[] roots = new ModuleDirectories(webAppDirectory).getAllModuleDirectories();
+            if (roots.length != getInt(props, "roots"))
+                return stale(log, "module directories have changed");
+            for (int i = 0; i < roots.length; i++)
+            {
+                String prefix = "root." + i + ".";
+                if (!roots[i].getAbsolutePath().equals(props.getProperty(prefix + "path")))
+                    return stale(log, "module directories have changed");
+                if (roots[i].lastModified() != getLong(props, prefix + "modified"))
+                    return stale(log, "modules have been added or removed in " + roots[i]);
+            }
+
+            int moduleCount = getInt(props, "modules");
+            List<File> moduleDirectories = new ArrayList<>(moduleCount);
+            List<File> jarFiles = new ArrayList<>();
+            List<File> springConfigFiles = new ArrayList<>();
+            for (int i = 0; i < moduleCount; i++)
+            {
+                String prefix = "module." + i + ".";
+                File archive = new File(getRequired(props, prefix + "archive"));
+                BasicFileAttributes attributes = readAttributes(archive);
+                if (attributes == null || attributes.size() != getLong(props, prefix + "archiveSize") || attributes.lastModifiedTime().toMillis() != getLong(props, prefix + "archiveModified"))
+                    return stale(log, archive + " has changed");
+
+                File dir = new File(getRequired(props, prefix + "dir"));
+                if (dir.lastModified() != getLong(props, prefix + "dirModified"))
+                    return stale(log, dir + " has changed");
+
+                moduleDirectories.add(dir);
+                addFiles(props, prefix + "jar.", jarFiles);
+                addFiles(props, prefix + "spring.", springConfigFiles);
+            }
+            return new ModuleCache(moduleDirectories, jarFiles, springConfigFiles);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Includes NumberFormatException, and ModuleDirectories complaining about a missing directory
+            log.info("Ignoring invalid module cache manifest " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the manifest for a completed extraction. Nothing is written if any module was deployed from a directory
+     * rather than an archive, since changes to those can't be detected without walking them.
+     */
+    public static void write(File webAppDirectory, ModuleDirectories moduleDirectories, Collection<ExplodedModule> explodedModules, SimpleLogger log)
+    {
+        Properties props = new Properties();
+        props.setProperty("version", VERSION);
+
+        File[] roots = moduleDirectories.getAllModuleDirectories();
+        props.setProperty("roots", String.valueOf(roots.length));
+        for (int i = 0; i < roots.length; i++)
+        {
+            props.setProperty("root." + i + ".path", roots[i].getAbsolutePath());
+            props.setProperty("root." + i + ".modified", String.valueOf(roots[i].lastModified()));
+        }
+
+        List<ExplodedModule> modules = new ArrayList<>(explodedModules);
+        modules.sort(Comparator.comparing(ExplodedModule::getRootDirectory, ModuleExtractor.MODULE_ORDER));
+        props.setProperty("modules", String.valueOf(modules.size()));
+        for (int i = 0; i < modules.size(); i++)
+        {
+            ExplodedModule module = modules.get(i);
+            File archive = module.getSourceModuleFile();
+            BasicFileAttributes attributes = archive == null ? null : readAttributes(archive);
+            if (attributes == null)
+            {
+                log.info("Not writing module cache manifest because " + module.getRootDirectory() + " wasn't extracted from a module archive");
+                getFile(webAppDirectory).delete();
+                return;
+            }
+
+            String prefix = "module." + i + ".";
+            props.setProperty(prefix + "archive", archive.getAbsolutePath());
+            props.setProperty(prefix + "archiveSize", String.valueOf(attributes.size()));
+            props.setProperty(prefix + "archiveModified", String.valueOf(attributes.lastModifiedTime().toMillis()));
+            props.setProperty(prefix + "dir", module.getRootDirectory().getAbsolutePath());
+            props.setProperty(prefix + "dirModified", String.valueOf(module.getRootDirectory().lastModified()));
+            setFiles(props, prefix + "jar.", module.getJarFiles());
+            setFiles(props, prefix + "spring.", module.getSpringConfigFiles());
+        }
+
+        Path file = getFile(webAppDirectory).toPath();
+        try
+        {
+            ManifestProperties.store(props, file, "Modules extracted by " + ModuleExtractor.class.getName() + ". Delete this file to force re-extraction.");
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to write module cache manifest " + file + ": " + e);
+        }
+    }
+
+    private static ModuleCache stale(SimpleLogger log, String reason)
+    {
+        log.info("Module cache manifest is out of date (" + reason + "), extracting modules");
+        return null;
+    }
+
+    private static BasicFileAttributes readAttributes(File file)
+    {
+        try
+        {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+}
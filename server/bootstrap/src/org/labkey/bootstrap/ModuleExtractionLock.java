@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2026 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock that keeps processes sharing a web app, such as many pipeline jobs starting at once against the same
+ * network file system, from deleting and extracting the same module directories at the same time. One process
+ * extracts while the rest wait, and they can then check the {@link ModuleCache} manifest the first one wrote rather
+ * than repeating the work. Uses an OS-level lock on a file in WEB-INF, so it relies on the file system supporting
+ * byte-range locks (NFSv4 does). Only if the file system can't lock the file at all does extraction carry on unlocked
+ * as before. Giving up on a lock that another process holds would let both write to the same module directories, so
+ * waiting too long, or being interrupted while waiting, fails the extraction instead.
+ */
+public class ModuleExtractionLock implements AutoCloseable
+{
+    public static final String FILE_NAME = "labkey-module-extraction.lock";
+
+    // File locks are held on behalf of the whole JVM, so threads within it take turns on this first
+    private static final ReentrantLock LOCAL_LOCK = new ReentrantLock();
+
+    // Long enough for another process to extract every module, short enough that a hung one doesn't block startup forever
+    private static final long MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final FileChannel _channel;
+    private final FileLock _lock;
+    private final boolean _waited;
+
+    private ModuleExtractionLock(FileChannel channel, FileLock lock, boolean waited)
+    {
+        _channel = channel;
+        _lock = lock;
+        _waited = waited;
+    }
+
+    /**
+     * Blocks until no other thread or process is extracting modules for this web app
+     * @throws IllegalStateException if another process holds the lock for more than {@link #MAX_WAIT_MILLIS}, or the
+     * thread is interrupted while waiting
+     */
+    public static ModuleExtractionLock acquire(File webAppDirectory, SimpleLogger log)
+    {
+        boolean waited = !LOCAL_LOCK.tryLock();
+        if (waited)
+            LOCAL_LOCK.lock();
+
+        // Already held further up this thread's stack
+        if (LOCAL_LOCK.getHoldCount() > 1)
+            return new ModuleExtractionLock(null, null, false);
+
+        File file = new File(new File(webAppDirectory, "WEB-INF"), FILE_NAME);
+        FileChannel channel = null;
+        try
+        {
+            file.getParentFile().mkdirs();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null)
+            {
+                log.info("Waiting for another process to finish extracting modules");
+                long start = System.currentTimeMillis();
+                lock = waitForLock(channel, start + MAX_WAIT_MILLIS);
+                waited = true;
+                if (lock == null)
+                {
+                    String message = "Another process has been extracting modules into " + webAppDirectory + " for more than " + TimeUnit.MILLISECONDS.toMinutes(MAX_WAIT_MILLIS) +
+                            " minutes, holding a lock on " + file + ". Please stop that process or wait for it to finish, then restart the server";
+                    log.error(message);
+                    throw new IllegalStateException(message);
+                }
+                log.info("Done waiting for module extraction after " + (System.currentTimeMillis() - start) + "ms");
+            }
+            return new ModuleExtractionLock(channel, lock, waited);
+        }
+        catch (InterruptedException | ClosedByInterruptException e)
+        {
+            Thread.currentThread().interrupt();
+            closeQuietly(channel);
+            LOCAL_LOCK.unlock();
+            throw new IllegalStateException("Interrupted while waiting for another process to finish extracting modules into " + webAppDirectory, e);
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            // The lock file couldn't be created or the file system doesn't support locking it
+            log.warn("Unable to lock " + file + ", so extracting modules without coordinating with other processes: " + e);
+            closeQuietly(channel);
+            return new ModuleExtractionLock(null, null, waited);
+        }
+        catch (RuntimeException e)
+        {
+            closeQuietly(channel);
+            LOCAL_LOCK.unlock();
+            throw e;
+        }
+    }
+
+    /** @return the lock, or null if it's still held by another process at the deadline */
+    private static FileLock waitForLock(FileChannel channel, long deadline) throws IOException, InterruptedException
+    {
+        FileLock lock = null;
+        while (lock == null && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+            lock = channel.tryLock();
+        }
+        return lock;
+    }
+
+    /** @return whether another thread or process held the lock when we asked for it, and so may have just extracted the modules */
+    public boolean waited()
+    {
+        return _waited;
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            if (null != _lock)
+                _lock.release();
+        }
+        catch (IOException ignored)
+        {
+            // Closing the channel releases it anyway
+        }
+        finally
+        {
+            closeQuietly(_channel);
+            LOCAL_LOCK.unlock();
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        if (null == channel)
+            return;
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+}
@@ -18,7 +18,16 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,6 +36,19 @@
  */
 public class ModuleExtractor
 {
+    /** Modules whose jars go first on the class path, since every other module depends on them */
+    public static final List<String> PRIORITY_MODULES = List.of("api", "core");
+
+    /**
+     * Order in which exploded module directories are published and their jars added to class loaders: the
+     * {@link #PRIORITY_MODULES}, then the rest by name. It doesn't depend on which module finishes extracting first,
+     * so class and resource lookups find the same copy from one startup to the next.
+     */
+    public static final Comparator<File> MODULE_ORDER = Comparator.comparingInt((File dir) -> {
+                int index = PRIORITY_MODULES.indexOf(dir.getName().toLowerCase());
+                return index == -1 ? PRIORITY_MODULES.size() : index;
+            }).thenComparing(File::getName).thenComparing(File::getPath);
+
     public final FilenameFilter moduleArchiveFilter = (dir, name) -> name.toLowerCase().endsWith(ModuleArchive.FILE_EXTENSION);
 
     protected final File _webAppDirectory;
@@ -38,26 +60,62 @@
     private Set<ExplodedModule> _explodedModules;
 
     private final SimpleLogger _log;
+    private final boolean _precompressWebResources;
 
     public ModuleExtractor(File webAppDirectory, SimpleLogger log)
+    {
+        this(webAppDirectory, log, false);
+    }
+
+    /** @param precompressWebResources see {@link ExplodedModule#deployToWebApp(File, boolean)} */
+    public ModuleExtractor(File webAppDirectory, SimpleLogger log, boolean precompressWebResources)
     {
         _webAppDirectory = webAppDirectory;
         _moduleDirectories = new ModuleDirectories(_webAppDirectory);
         _log = log;
+        _precompressWebResources = precompressWebResources;
     }
 
+    /**
+     * Extract and deploy all modules while holding the {@link ModuleExtractionLock}, then record them in the
+     * {@link ModuleCache} manifest before releasing it, so that processes waiting their turn can use the result.
+     */
     public Collection<ExplodedModule> extractModules()
+    {
+        return extractModules(explodedModule -> {});
+    }
+
+    /**
+     * Like {@link #extractModules()}, but also hands each module to the listener as soon as it and every module
+     * before it in {@link #MODULE_ORDER} have been deployed. The listener is always called on this thread, in that
+     * order, so the caller can add each module's jars to a class loader as it becomes ready and still end up with the
+     * same class path every time.
+     */
+    public Collection<ExplodedModule> extractModules(Consumer<ExplodedModule> listener)
+    {
+        ModuleExtractionLock lock = ModuleExtractionLock.acquire(_webAppDirectory, _log);
+        try
+        {
+            Collection<ExplodedModule> explodedModules = extractAndDeployModules(listener);
+            if (ModuleCache.isEnabled())
+                writeModuleCache();
+            return explodedModules;
+        }
+        finally
+        {
+            lock.close();
+        }
+    }
+
+    private Collection<ExplodedModule> extractAndDeployModules(Consumer<ExplodedModule> listener)
     {
         _moduleArchiveFiles = new ConcurrentHashMap<>();
         _errorArchives = new ConcurrentHashMap<>();
         _ignoredExplodedDirs = getConcurrentSet();
 
-        // map exploded directory to zipped .module
-        Map<File,ModuleArchive> mapModuleDirToArchive = new ConcurrentHashMap<>();
-
         _log.info("Exploding module archives");
 
-        // Explode each module archive file into its directory, in parallel. Note: Default thread pool uses (CPU - 1) threads.
+        // Open each module archive file to find its name, in parallel. Note: Default thread pool uses (CPU - 1) threads.
 
         // It might be tempting to try replacing .collect().parallelStream() below with .parallel(), but the intermediate
         // list is critical in this case. File.listFiles() can't estimate the size of its results, so invoking parallel()
@@ -68,6 +126,8 @@ public Collection<ExplodedModule> extractModules()
                     File[] files = dir.listFiles(moduleArchiveFilter);
                     return null == files ? null : Stream.of(files);
                 })
+                .collect(Collectors.toList()) // This intermediate list is critical. See comment above.
+                .parallelStream()
                 .map(moduleArchiveFile -> {
                     try
                     {
@@ -95,62 +155,175 @@ public Collection<ExplodedModule> extractModules()
             }
         }
 
-        // extract
-        archives.parallelStream()
-            .forEach(moduleArchive->{
-                File moduleArchiveFile = moduleArchive.getFile();
-                try
-                {
-                    File dir = moduleArchive.extractAll();
-                    _moduleArchiveFiles.put(moduleArchiveFile, moduleArchive);
-                    mapModuleDirToArchive.put(dir.getAbsoluteFile(), moduleArchive);
-                }
-                catch (IOException e)
-                {
-                    _log.error("Unable to extract module archive " + moduleArchiveFile.getPath() + "!", e);
-                    _errorArchives.put(moduleArchiveFile, moduleArchiveFile.lastModified());
-                }
-            });
-
-        _log.info("Deploying resources from exploded modules to web app directory");
         _explodedModules = getConcurrentSet();
 
-        // Deploy resources from modules, in parallel. Note: Default thread pool uses (CPU - 1) threads.
-        // This must be a separate step from module extraction (above) to support module directories that don't come
-        // from a .module archive.
-        _moduleDirectories.streamAllModuleDirectories()
-            .flatMap(dir-> {File[] files=dir.listFiles(File::isDirectory); return null==files ? null : Stream.of(files);})
-            .collect(Collectors.toList()) // This intermediate list is critical. See comment above.
-            .parallelStream()
-            .forEach(dir->{
+        // Module directories that don't come from a .module archive are deployed as they are
+        Set<File> archiveDirs = archives.stream().map(archive -> archive.getDefaultExplodedLocation().getAbsoluteFile()).collect(Collectors.toSet());
+        List<File> plainDirs = new ArrayList<>();
+        for (File moduleDir : _moduleDirectories.getAllModuleDirectories())
+        {
+            File[] dirs = moduleDir.listFiles(File::isDirectory);
+            for (File dir : null == dirs ? new File[0] : dirs)
+            {
                 if (dir.isHidden() || dir.getName().startsWith("."))
-                {
                     _ignoredExplodedDirs.add(dir);
-                    return;
-                }
+                else if (!archiveDirs.contains(dir.getAbsoluteFile()))
+                    plainDirs.add(dir);
+            }
+        }
 
-                try
-                {
-                    ModuleArchive archive = mapModuleDirToArchive.get(dir.getAbsoluteFile());
-                    ExplodedModule explodedModule = new ExplodedModule(dir, null==archive?null:archive.getFile());
-                    _log.info("Deploying resources from " + explodedModule.getRootDirectory() + ".");
-                    long startTime = System.currentTimeMillis();
-                    Set<File> moduleWebAppFiles = explodedModule.deployToWebApp(_webAppDirectory);
-
-                    _explodedModules.add(explodedModule);
-                    _log.info("Done deploying resources from " + explodedModule.getRootDirectory() + ". Extracted " + moduleWebAppFiles.size() + " file(s) in " + (System.currentTimeMillis() - startTime) + "ms.");
-                }
-                catch(IOException e)
+        // Each module's place in the order it's published in, by the directory it's deployed from
+        List<File> publicationOrder = new ArrayList<>(plainDirs);
+        archives.forEach(archive -> publicationOrder.add(archive.getDefaultExplodedLocation()));
+        publicationOrder.sort(MODULE_ORDER);
+        Map<File, Integer> slots = new HashMap<>();
+        for (int i = 0; i < publicationOrder.size(); i++)
+        {
+            slots.put(publicationOrder.get(i).getAbsoluteFile(), i);
+        }
+
+        // Extract and deploy each module as its own task, so no module waits for the slowest one to be extracted
+        // before it's deployed. The priority modules go first, since nothing can be published until they're done,
+        // then the largest archives, since they take longest.
+        List<ModuleArchive> orderedArchives = new ArrayList<>(archives);
+        orderedArchives.sort(Comparator.comparing((ModuleArchive archive) -> !PRIORITY_MODULES.contains(archive.getModuleName().toLowerCase()))
+                .thenComparing(Comparator.comparingLong((ModuleArchive archive) -> archive.getFile().length()).reversed()));
+
+        AtomicReferenceArray<ExplodedModule> results = new AtomicReferenceArray<>(publicationOrder.size());
+        boolean[] finished = new boolean[publicationOrder.size()];
+        int published = 0;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "module-extraction-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            // Each task stores its module, or null if it failed, and returns its slot
+            CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+            for (ModuleArchive archive : orderedArchives)
+            {
+                int slot = slots.get(archive.getDefaultExplodedLocation().getAbsoluteFile());
+                completionService.submit(() -> {
+                    results.set(slot, extractAndDeploy(archive));
+                    return slot;
+                });
+            }
+            for (File dir : plainDirs)
+            {
+                int slot = slots.get(dir.getAbsoluteFile());
+                completionService.submit(() -> {
+                    results.set(slot, deploy(dir, null));
+                    return slot;
+                });
+            }
+
+            // Fails fast if any task throws, rather than waiting for the rest
+            for (int i = 0; i < publicationOrder.size(); i++)
+            {
+                finished[getResult(completionService.take())] = true;
+                // Publish everything up to the first module that's still in progress
+                for (; published < finished.length && finished[published]; published++)
                 {
-                    _log.error("Unable to deploy resources from exploded module " + dir.getPath() + " to web app directory!", e);
+                    ExplodedModule explodedModule = results.get(published);
+                    if (null != explodedModule)
+                    {
+                        _explodedModules.add(explodedModule);
+                        listener.accept(explodedModule);
+                    }
                 }
-            });
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting modules", e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
 
         _log.info("Module extraction and deployment complete.");
 
         return _explodedModules;
     }
 
+    private static <T> T getResult(Future<T> task) throws InterruptedException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException re)
+                throw re;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** @return the deployed module, or null if it couldn't be extracted and there's no earlier copy to deploy instead */
+    private ExplodedModule extractAndDeploy(ModuleArchive moduleArchive)
+    {
+        File moduleArchiveFile = moduleArchive.getFile();
+        try
+        {
+            File dir = moduleArchive.extractAll();
+            _moduleArchiveFiles.put(moduleArchiveFile, moduleArchive);
+            return deploy(dir, moduleArchive);
+        }
+        catch (IOException e)
+        {
+            _log.error("Unable to extract module archive " + moduleArchiveFile.getPath() + "!", e);
+            _errorArchives.put(moduleArchiveFile, moduleArchiveFile.lastModified());
+            // Fall back on whatever was extracted previously
+            File dir = moduleArchive.getDefaultExplodedLocation();
+            return dir.isDirectory() ? deploy(dir, null) : null;
+        }
+    }
+
+    /** @return the deployed module, or null if its resources couldn't be deployed */
+    private ExplodedModule deploy(File dir, ModuleArchive archive)
+    {
+        try
+        {
+            ExplodedModule explodedModule = new ExplodedModule(dir, null==archive?null:archive.getFile());
+            _log.info("Deploying resources from " + explodedModule.getRootDirectory() + ".");
+            long startTime = System.currentTimeMillis();
+            Set<File> moduleWebAppFiles = explodedModule.deployToWebApp(_webAppDirectory, _precompressWebResources);
+
+            _log.info("Done deploying resources from " + explodedModule.getRootDirectory() + ". Extracted " + moduleWebAppFiles.size() + " file(s) in " + (System.currentTimeMillis() - startTime) + "ms.");
+            return explodedModule;
+        }
+        catch(IOException e)
+        {
+            _log.error("Unable to deploy resources from exploded module " + dir.getPath() + " to web app directory!", e);
+            return null;
+        }
+    }
+
+    /**
+     * Record the modules from the last {@link #extractModules()} in a {@link ModuleCache} manifest, so other processes
+     * using this web app can skip extraction while nothing changes. Skipped if any archive failed to extract.
+     */
+    private void writeModuleCache()
+    {
+        if (null == _explodedModules)
+            return;
+        if (!_errorArchives.isEmpty())
+        {
+            _log.info("Not writing module cache manifest because " + _errorArchives.size() + " module archive(s) could not be extracted");
+            ModuleCache.getFile(_webAppDirectory).delete();
+            return;
+        }
+        ModuleCache.write(_webAppDirectory, _moduleDirectories, _explodedModules, _log);
+    }
+
     private <E> Set<E> getConcurrentSet()
     {
         return Collections.newSetFromMap(new ConcurrentHashMap<>());
@@ -163,7 +336,7 @@ public List<File> getExplodedModuleDirectories()
         {
             dirs.add(expMod.getRootDirectory());
         }
-        dirs.sort(Comparator.comparing(File::getName));
+        dirs.sort(MODULE_ORDER);
         return dirs;
     }
 
@@ -171,7 +344,7 @@ public List<Map.Entry<File,File>> getExplodedModuleDirectoryAndSource()
     {
         return _explodedModules.stream()
             .map(expMod -> new AbstractMap.SimpleEntry<>(expMod.getRootDirectory(), expMod.getSourceModuleFile()))
-            .sorted(Comparator.comparing(a -> a.getKey().getName()))
+            .sorted(Map.Entry.comparingByKey(MODULE_ORDER))
             .collect(Collectors.toList());
     }
 
@@ -240,8 +413,16 @@ public boolean areModulesModified(Set<String> previouslyLoggedModules)
                     if (null == moduleArchive)
                     {
                         moduleArchive = new ModuleArchive(moduleArchiveFile, _log);
-                        File explodedDir = moduleArchive.extractAll();
-                        new ExplodedModule(explodedDir).deployToWebApp(_webAppDirectory);
+                        ModuleExtractionLock lock = ModuleExtractionLock.acquire(_webAppDirectory, _log);
+                        try
+                        {
+                            File explodedDir = moduleArchive.extractAll();
+                            new ExplodedModule(explodedDir).deployToWebApp(_webAppDirectory, _precompressWebResources);
+                        }
+                        finally
+                        {
+                            lock.close();
+                        }
                         _moduleArchiveFiles.put(moduleArchiveFile, moduleArchive);
                     }
                 }
@@ -293,7 +474,7 @@ public boolean areModulesModified(Set<String> previouslyLoggedModules)
             {
                 try
                 {
-                    explodedModule.deployToWebApp(_webAppDirectory);
+                    explodedModule.deployToWebApp(_webAppDirectory, _precompressWebResources);
                 }
                 catch(IOException e)
                 {
@@ -321,11 +502,19 @@ public boolean hasExplodedArchive(File moduleArchive)
     public Map.Entry<File,File> extractUpdatedModuleArchive(File moduleArchiveFile, File previousArchiveFile) throws IOException
     {
         ModuleArchive moduleArchive = new ModuleArchive(moduleArchiveFile, _log);
-        File explodedDir = moduleArchive.extractAll();
-
-        ExplodedModule explodedModule = new ExplodedModule(explodedDir, moduleArchiveFile);
-
-        explodedModule.deployToWebApp(_webAppDirectory);
+        File explodedDir;
+        ExplodedModule explodedModule;
+        ModuleExtractionLock lock = ModuleExtractionLock.acquire(_webAppDirectory, _log);
+        try
+        {
+            explodedDir = moduleArchive.extractAll();
+            explodedModule = new ExplodedModule(explodedDir, moduleArchiveFile);
+            explodedModule.deployToWebApp(_webAppDirectory, _precompressWebResources);
+        }
+        finally
+        {
+            lock.close();
+        }
         if (!previousArchiveFile.equals(moduleArchiveFile))
         {
             _moduleArchiveFiles.remove(previousArchiveFile);
@@ -341,11 +530,19 @@ public Map.Entry<File,File> extractUpdatedModuleArchive(File moduleArchiveFile,
     public Map.Entry<File,File> extractNewModuleArchive(File moduleArchiveFile) throws IOException
     {
         ModuleArchive moduleArchive = new ModuleArchive(moduleArchiveFile, _log);
-        File explodedDir = moduleArchive.extractAll();
-
-        ExplodedModule explodedModule = new ExplodedModule(explodedDir, moduleArchiveFile);
-
-        explodedModule.deployToWebApp(_webAppDirectory);
+        File explodedDir;
+        ExplodedModule explodedModule;
+        ModuleExtractionLock lock = ModuleExtractionLock.acquire(_webAppDirectory, _log);
+        try
+        {
+            explodedDir = moduleArchive.extractAll();
+            explodedModule = new ExplodedModule(explodedDir, moduleArchiveFile);
+            explodedModule.deployToWebApp(_webAppDirectory, _precompressWebResources);
+        }
+        finally
+        {
+            lock.close();
+        }
         _moduleArchiveFiles.put(moduleArchiveFile, moduleArchive);
         _explodedModules.add(explodedModule);
         return new AbstractMap.SimpleEntry<>(explodedDir, moduleArchiveFile);
@@ -21,7 +21,6 @@
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -43,7 +42,10 @@
     private final List<File> _pipelineLibDirs = new ArrayList<>();
     private File _configDir;
     private final String[] _args;
+    private List<URL> _libraryUrls;
+    private List<URL> _moduleUrls;
     private URLClassLoader _classLoader;
+    private URLClassLoader _libraryClassLoader;
     private List<File> _moduleSpringContextFiles;
     private List<File> _customSpringConfigFiles;
     private List<File> _moduleFiles;
@@ -167,43 +169,124 @@ public File getLogDir()
         return _logDir;
     }
 
-    public ClassLoader getClassLoader()
+    /** @return a single loader for the pipeline lib jars and the modules' jars */
+    public synchronized ClassLoader getClassLoader()
     {
         init();
+        if (_classLoader == null)
+        {
+            List<URL> urls = new ArrayList<>(_libraryUrls);
+            urls.addAll(_moduleUrls);
+            _classLoader = new URLClassLoader(urls.toArray(new URL[0]), ClusterBootstrap.class.getClassLoader());
+        }
         return _classLoader;
     }
 
+    /**
+     * @return a loader for just the pipeline lib jars (and WEB-INF/classes, if included), for callers that share those
+     * classes across several jobs but give each job its own copy of the modules with {@link #createModuleClassLoader(ClassLoader)}
+     */
+    public synchronized ClassLoader getLibraryClassLoader()
+    {
+        init();
+        if (_libraryClassLoader == null)
+        {
+            _libraryClassLoader = new URLClassLoader(_libraryUrls.toArray(new URL[0]), ClusterBootstrap.class.getClassLoader());
+        }
+        return _libraryClassLoader;
+    }
+
+    /** @return a new loader for the modules' jars, which the caller should close once it's done with the classes */
+    public URLClassLoader createModuleClassLoader(ClassLoader parent)
+    {
+        init();
+        return new URLClassLoader(_moduleUrls.toArray(new URL[0]), parent);
+    }
+
     private synchronized void init()
     {
-        if (_classLoader == null)
+        if (_libraryUrls == null)
         {
-            ModuleExtractor extractor = new ModuleExtractor(getWebappDir(), new StdOutLogger());
-            Collection<ExplodedModule> explodedModules = extractor.extractModules();
-            _moduleFiles = new ArrayList<>(extractor.getExplodedModuleDirectories());
+            SimpleLogger log = new StdOutLogger();
+            // If the modules haven't changed since they were last extracted, skip opening and deploying every one
+            ModuleCache moduleCache = loadModuleCache(log);
+            List<ExplodedModule> explodedModules = null;
+            if (moduleCache == null)
+            {
+                try (ModuleExtractionLock lock = ModuleExtractionLock.acquire(getWebappDir(), log))
+                {
+                    // Another process may have just extracted them while we waited
+                    if (lock.waited())
+                        moduleCache = loadModuleCache(log);
+                    if (moduleCache == null)
+                    {
+                        ModuleExtractor extractor = new ModuleExtractor(getWebappDir(), log);
+                        // Handed over in ModuleExtractor.MODULE_ORDER, the same order as the cache
+                        explodedModules = new ArrayList<>();
+                        extractor.extractModules(explodedModules::add);
+                        _moduleFiles = new ArrayList<>(extractor.getExplodedModuleDirectories());
+                    }
+                }
+            }
+            if (moduleCache != null)
+                _moduleFiles = new ArrayList<>(moduleCache.getModuleDirectories());
             _moduleSpringContextFiles = new ArrayList<>();
 
-            List<URL> jarUrls = new ArrayList<>();
+            // Likewise, reuse what the last run found in the lib and config directories if none of them has changed
+            ClassPathSnapshot snapshot = ClassPathSnapshot.isEnabled() ? ClassPathSnapshot.load(getWebappDir(), _pipelineLibDirs, _configDir, log) : null;
+            List<File> libJars;
+            if (snapshot != null)
+            {
+                libJars = snapshot.getLibJars();
+                _customSpringConfigFiles = new ArrayList<>(snapshot.getConfigFiles());
+            }
+            else
+            {
+                List<File> searchedDirs = new ArrayList<>(_pipelineLibDirs);
+                libJars = new ArrayList<>();
+                for (File libDir : _pipelineLibDirs)
+                {
+                    libJars.addAll(Arrays.asList(libDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".jar"))));
+                }
+
+                _customSpringConfigFiles = new ArrayList<>();
+                if (_configDir != null)
+                {
+                    addConfigFiles(_configDir, searchedDirs);
+                }
+
+                if (ClassPathSnapshot.isEnabled())
+                    ClassPathSnapshot.write(getWebappDir(), _pipelineLibDirs, _configDir, searchedDirs, libJars, _customSpringConfigFiles, log);
+            }
+
+            List<URL> libraryUrls = new ArrayList<>();
+            List<URL> moduleUrls = new ArrayList<>();
             try
             {
                 if (_includeWEBINFClasses)
                 {
                     File webInfDir = new File(_webappDir, "WEB-INF");
                     File classesDir = new File(webInfDir, "classes");
-                    jarUrls.add(classesDir.toURI().toURL());
+                    libraryUrls.add(classesDir.toURI().toURL());
                 }
 
-                for (File libDir : _pipelineLibDirs)
+                for (File file : libJars)
                 {
-                    for (File file : libDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".jar")))
-                    {
-                        jarUrls.add(file.toURI().toURL());
-                    }
+                    libraryUrls.add(file.toURI().toURL());
                 }
 
-                for(ExplodedModule explodedModule : explodedModules)
+                if (moduleCache != null)
+                {
+                    moduleUrls.addAll(moduleCache.getJarFileUrls());
+                    _moduleSpringContextFiles.addAll(moduleCache.getSpringConfigFiles());
+                }
+                else
                 {
-                    jarUrls.addAll(Arrays.asList(explodedModule.getJarFileUrls()));
-                    _moduleSpringContextFiles.addAll(explodedModule.getSpringConfigFiles());
+                    for (ExplodedModule explodedModule : explodedModules)
+                    {
+                        moduleUrls.addAll(Arrays.asList(explodedModule.getJarFileUrls()));
+                        _moduleSpringContextFiles.addAll(explodedModule.getSpringConfigFiles());
+                    }
                 }
             }
             catch (MalformedURLException e)
@@ -211,16 +294,16 @@ private synchronized void init()
                 throw new RuntimeException(e);
             }
 
-            _customSpringConfigFiles = new ArrayList<>();
-            if (_configDir != null)
-            {
-                addConfigFiles(_configDir);
-            }
-
-            _classLoader = new URLClassLoader(jarUrls.toArray(new URL[0]), ClusterBootstrap.class.getClassLoader());
+            _libraryUrls = libraryUrls;
+            _moduleUrls = moduleUrls;
         }
     }
 
+    private ModuleCache loadModuleCache(SimpleLogger log)
+    {
+        return ModuleCache.isEnabled() ? ModuleCache.load(getWebappDir(), log) : null;
+    }
+
     public List<File> getModuleSpringConfigFiles()
     {
         return _moduleSpringContextFiles;
@@ -231,13 +314,14 @@ public List<File> getCustomSpringConfigFiles()
         return _customSpringConfigFiles;
     }
 
-    // Traverse the directory structure looking for files that match **/*.xml
-    private void addConfigFiles(File configDir)
+    // Traverse the directory structure looking for files that match **/*.xml, noting each directory we looked in
+    private void addConfigFiles(File configDir, List<File> searchedDirs)
     {
+        searchedDirs.add(configDir);
         File[] subDirs = configDir.listFiles(File::isDirectory);
         for (File subDir : subDirs)
         {
-            addConfigFiles(subDir);
+            addConfigFiles(subDir, searchedDirs);
         }
 
         File[] xmlFiles = configDir.listFiles(pathname -> pathname.getName().toLowerCase().endsWith(".xml"));
@@ -24,5 +24,10 @@
 {
     public void error(Object message, Throwable t);
     public void error(Object message);
+    /** Loggers that don't distinguish warnings log them as info */
+    public default void warn(Object message)
+    {
+        info(message);
+    }
     public void info(Object message);
 }
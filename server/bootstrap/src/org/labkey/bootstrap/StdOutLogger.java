@@ -34,6 +34,12 @@ public void error(Object message)
         System.err.println(message);
     }
 
+    @Override
+    public void warn(Object message)
+    {
+        System.err.println(message);
+    }
+
     @Override
     public void info(Object message)
     {
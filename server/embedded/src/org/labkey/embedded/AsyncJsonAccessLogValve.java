@@ -0,0 +1,198 @@
+package org.labkey.embedded;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.valves.JsonAccessLogValve;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.CharArrayWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JSON access log valve that keeps the write off of the request thread. Records are still formatted by the request
+ * thread, but are then handed to a bounded, lock-free queue that a single background thread drains in batches,
+ * writing and flushing each batch at once.
+ *
+ * When the queue is full, {@link LabKeyServer.JsonAccessLog.OverflowPolicy#BLOCK} makes the request thread wait for
+ * room and {@link LabKeyServer.JsonAccessLog.OverflowPolicy#DROP} discards the record. Discarded records are counted
+ * and reported via the "droppedCount" JMX attribute and periodic warnings.
+ */
+class AsyncJsonAccessLogValve extends JsonAccessLogValve
+{
+    private static final Log LOG = LogFactory.getLog(AsyncJsonAccessLogValve.class);
+
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Queue<String> _queue = new ConcurrentLinkedQueue<>();
+    // Tracks the queue's size, since ConcurrentLinkedQueue.size() is a full traversal
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final LongAdder _dropped = new LongAdder();
+
+    private int _queueCapacity = 10_000;
+    private LabKeyServer.JsonAccessLog.OverflowPolicy _overflowPolicy = LabKeyServer.JsonAccessLog.OverflowPolicy.BLOCK;
+
+    private volatile boolean _running;
+    private volatile Thread _writerThread;
+
+    public int getQueueCapacity()
+    {
+        return _queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity)
+    {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("Access log queue capacity must be positive: " + queueCapacity);
+        _queueCapacity = queueCapacity;
+    }
+
+    public LabKeyServer.JsonAccessLog.OverflowPolicy getOverflowPolicy()
+    {
+        return _overflowPolicy;
+    }
+
+    public void setOverflowPolicy(LabKeyServer.JsonAccessLog.OverflowPolicy overflowPolicy)
+    {
+        _overflowPolicy = overflowPolicy;
+    }
+
+    /** @return the number of records discarded because the queue was full. Exposed via JMX. */
+    public long getDroppedCount()
+    {
+        return _dropped.sum();
+    }
+
+    /** @return the number of records waiting to be written. Exposed via JMX. */
+    public int getQueuedCount()
+    {
+        return _queued.get();
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException
+    {
+        super.startInternal();
+
+        _running = true;
+        Thread writerThread = new Thread(this::drain, "json-access-log-writer");
+        writerThread.setDaemon(true);
+        _writerThread = writerThread;
+        writerThread.start();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException
+    {
+        _running = false;
+        Thread writerThread = _writerThread;
+        if (writerThread != null)
+        {
+            LockSupport.unpark(writerThread);
+            try
+            {
+                writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            _writerThread = null;
+        }
+        // Pick up anything that was queued after the writer finished
+        writeBatches();
+
+        super.stopInternal();
+    }
+
+    /** Called on the request thread with the formatted record. The buffer is reused once this returns, so copy it. */
+    @Override
+    public void log(CharArrayWriter message)
+    {
+        String record = message.toString();
+        while (true)
+        {
+            int queued = _queued.get();
+            if (queued < _queueCapacity)
+            {
+                if (_queued.compareAndSet(queued, queued + 1))
+                {
+                    _queue.offer(record);
+                    if (queued == 0)
+                    {
+                        // The writer may be idle, so let it know there's work
+                        LockSupport.unpark(_writerThread);
+                    }
+                    return;
+                }
+            }
+            else if (_overflowPolicy == LabKeyServer.JsonAccessLog.OverflowPolicy.DROP || !_running)
+            {
+                _dropped.increment();
+                return;
+            }
+            else
+            {
+                LockSupport.unpark(_writerThread);
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void drain()
+    {
+        long reportedDropped = 0;
+        long lastReport = System.nanoTime() - DROP_REPORT_INTERVAL_NANOS;
+        while (_running)
+        {
+            if (writeBatches() == 0)
+            {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+
+            // Warn at most once a minute so a sustained overload doesn't flood the log
+            long dropped = _dropped.sum();
+            if (dropped != reportedDropped && System.nanoTime() - lastReport > DROP_REPORT_INTERVAL_NANOS)
+            {
+                LOG.warn("Dropped " + (dropped - reportedDropped) + " access log record(s) because the queue of " + _queueCapacity + " was full. Total dropped: " + dropped);
+                reportedDropped = dropped;
+                lastReport = System.nanoTime();
+            }
+        }
+        writeBatches();
+    }
+
+    /** @return the number of records written */
+    private int writeBatches()
+    {
+        int total = 0;
+        CharArrayWriter batch = new CharArrayWriter(8192);
+        while (true)
+        {
+            int count = 0;
+            String record;
+            while (count < MAX_BATCH_SIZE && (record = _queue.poll()) != null)
+            {
+                // The superclass adds the line separator after the final record
+                if (count > 0)
+                    batch.append(System.lineSeparator());
+                batch.append(record);
+                count++;
+            }
+            if (count == 0)
+                return total;
+
+            _queued.addAndGet(-count);
+            super.log(batch);
+            batch.reset();
+            total += count;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.labkey.embedded;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.session.StoreBase;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Session store that keeps each session in its own gzip-compressed file, so that sessions can be written in parallel
+ * and read back individually. Each file starts with an uncompressed header holding the session's last access time and
+ * timeout, which lets expired sessions be found without deserializing them.
+ */
+class CompressedSessionStore extends StoreBase
+{
+    private static final Log LOG = LogFactory.getLog(CompressedSessionStore.class);
+
+    private static final String EXTENSION = ".session";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final File _directory;
+
+    CompressedSessionStore(File directory)
+    {
+        _directory = directory;
+    }
+
+    @Override
+    public String getStoreName()
+    {
+        return "compressedSessionStore";
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException
+    {
+        if (!_directory.isDirectory() && !_directory.mkdirs())
+        {
+            throw new LifecycleException("Unable to create session directory " + _directory);
+        }
+        super.startInternal();
+    }
+
+    @Override
+    public int getSize() throws IOException
+    {
+        return keys().length;
+    }
+
+    @Override
+    public String[] keys() throws IOException
+    {
+        String[] files = _directory.list();
+        if (files == null)
+            return new String[0];
+
+        List<String> keys = new ArrayList<>(files.length);
+        for (String file : files)
+        {
+            if (file.endsWith(EXTENSION))
+                keys.add(file.substring(0, file.length() - EXTENSION.length()));
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    /** @return the IDs of the stored sessions that have timed out, based only on each file's header */
+    @Override
+    public String[] expiredKeys() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        for (String id : keys())
+        {
+            Path file = file(id);
+            if (file == null)
+                continue;
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+            {
+                long lastAccessedTime = in.readLong();
+                int maxInactiveInterval = in.readInt();
+                if (maxInactiveInterval >= 0 && now - lastAccessedTime >= maxInactiveInterval * 1000L)
+                    expired.add(id);
+            }
+            catch (NoSuchFileException e)
+            {
+                // Loaded or removed since we listed the directory
+            }
+            catch (EOFException e)
+            {
+                LOG.warn("Removing truncated session file " + file);
+                Files.deleteIfExists(file);
+            }
+        }
+        return expired.toArray(new String[0]);
+    }
+
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException
+    {
+        Path file = file(id);
+        if (file == null || !Files.exists(file))
+            return null;
+
+        Context context = getManager().getContext();
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            // Skip the header, which is only needed to find expired sessions
+            in.readLong();
+            in.readInt();
+            try (ObjectInputStream ois = getObjectInputStream(new GZIPInputStream(in)))
+            {
+                StandardSession session = (StandardSession) manager.createEmptySession();
+                session.readObjectData(ois);
+                session.setManager(manager);
+                return session;
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+        finally
+        {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+    @Override
+    public void save(Session session) throws IOException
+    {
+        Path file = file(session.getIdInternal());
+        if (file == null)
+            return;
+
+        // Write to a temporary file and move it into place, so a failure never leaves a partial session behind
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeLong(System.currentTimeMillis() - session.getIdleTimeInternal());
+                out.writeInt(session.getMaxInactiveInterval());
+                ObjectOutputStream oos = new ObjectOutputStream(new FastGZIPOutputStream(out));
+                ((StandardSession) session).writeObjectData(oos);
+                // Finishes the compressed stream
+                oos.close();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void remove(String id) throws IOException
+    {
+        Path file = file(id);
+        if (file != null)
+            Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void clear() throws IOException
+    {
+        for (String id : keys())
+        {
+            remove(id);
+        }
+    }
+
+    /** @return the file for the session, or null if the ID isn't something we'd have written */
+    private Path file(String id)
+    {
+        if (id == null || id.isEmpty() || id.contains("/") || id.contains("\\") || id.contains(".."))
+            return null;
+        return new File(_directory, id + EXTENSION).toPath();
+    }
+
+    /** Sessions are written while the server is shutting down, so favor speed over size */
+    private static class FastGZIPOutputStream extends GZIPOutputStream
+    {
+        private FastGZIPOutputStream(OutputStream out) throws IOException
+        {
+            super(out, 8192);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.labkey.embedded;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connection pool state for each JDBC data source, available from the "datasources" actuator endpoint on the
+ * management port. Each pool registers itself in JMX under {@link #getJmxName(String, String)}, tagged with the data
+ * source's name and display name, so the same numbers are available to any JMX client.
+ */
+@Endpoint(id = "datasources")
+public class DataSourceStatistics
+{
+    private static final Log LOG = LogFactory.getLog(DataSourceStatistics.class);
+
+    static final String JMX_DOMAIN = "org.labkey";
+    private static final String TYPE = "DataSource";
+    // Key property that DBCP adds to the data source's name when it registers the underlying connection pool
+    private static final String CONNECTION_POOL_KEY = "connectionpool";
+    private static final String CONNECTION_POOL_VALUE = "connections";
+
+    private static final String[] DATA_SOURCE_ATTRIBUTES = {"NumActive", "NumIdle", "MaxTotal", "MaxIdle", "MinIdle", "MaxWaitMillis",
+            "ValidationQuery", "TestOnBorrow", "TestWhileIdle"};
+    private static final String[] POOL_ATTRIBUTES = {"NumWaiters", "MeanBorrowWaitTimeMillis", "MaxBorrowWaitTimeMillis",
+            "BorrowedCount", "CreatedCount", "DestroyedCount", "DestroyedByBorrowValidationCount", "DestroyedByEvictorCount"};
+
+    /** @return the name DBCP should register the data source's MBean under, via its "jmxName" property */
+    static String getJmxName(String name, String displayName)
+    {
+        StringBuilder result = new StringBuilder(JMX_DOMAIN).append(":type=").append(TYPE).append(",name=").append(ObjectName.quote(name));
+        if (displayName != null)
+        {
+            result.append(",displayName=").append(ObjectName.quote(displayName));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return for each data source that has been used, the pool's current active, idle, and waiting counts, its
+     * configured limits and validation settings, mean and max borrow wait times, cumulative borrowed, created, and
+     * destroyed counts (including connections destroyed because they failed validation). Pools with adaptive sizing
+     * also report the controller's bounds and latest decision.
+     */
+    @ReadOperation
+    public Map<String, Map<String, Object>> dataSources()
+    {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            // DBCP registers the data source when the pool is created, which happens on first use
+            for (ObjectName name : server.queryNames(new ObjectName(JMX_DOMAIN + ":type=" + TYPE + ",*"), null))
+            {
+                if (name.getKeyProperty(CONNECTION_POOL_KEY) != null)
+                    continue;
+
+                Map<String, Object> stats = new LinkedHashMap<>();
+                String dataSourceName = ObjectName.unquote(name.getKeyProperty("name"));
+                String displayName = name.getKeyProperty("displayName");
+                stats.put("displayName", displayName == null ? dataSourceName : ObjectName.unquote(displayName));
+                addAttributes(server, name, DATA_SOURCE_ATTRIBUTES, stats);
+
+                Hashtable<String, String> poolProperties = new Hashtable<>(name.getKeyPropertyList());
+                poolProperties.put(CONNECTION_POOL_KEY, CONNECTION_POOL_VALUE);
+                ObjectName poolName = new ObjectName(JMX_DOMAIN, poolProperties);
+                if (server.isRegistered(poolName))
+                    addAttributes(server, poolName, POOL_ATTRIBUTES, stats);
+                Map<String, Object> sizing = PoolSizeController.getStatus(dataSourceName);
+                if (sizing != null)
+                    stats.put("AdaptiveSizing", sizing);
+                result.put(dataSourceName, stats);
+            }
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Unable to query data source statistics", e);
+        }
+        return result;
+    }
+
+    private void addAttributes(MBeanServer server, ObjectName name, String[] attributeNames, Map<String, Object> stats) throws JMException
+    {
+        for (Attribute attribute : server.getAttributes(name, attributeNames).asList())
+        {
+            stats.put(attribute.getName(), attribute.getValue());
+        }
+    }
+}
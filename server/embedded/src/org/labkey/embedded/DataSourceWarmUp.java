@@ -0,0 +1,268 @@
+package org.labkey.embedded;
+
+import jakarta.servlet.ServletContainerInitializer;
+import jakarta.servlet.ServletContext;
+import org.apache.catalina.Container;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.labkey.bootstrap.ConfigException;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens and validates connections for each JDBC data source in parallel while the LabKey webapp starts up, then returns
+ * them to their pools so that the first requests after a restart don't each pay to establish a connection.
+ *
+ * The pools are created when Tomcat builds the context's naming environment, so the warm-up starts as a
+ * ServletContainerInitializer, just before the webapp's own listeners run, and overlaps with their initialization.
+ * The connectors aren't started until the warm-up finishes (see {@link #awaitWarmUp(Tomcat)}), so no traffic arrives
+ * before the pools are ready. That wait is bounded by each data source's maxWaitMillis, so an unreachable database
+ * can't hold up startup indefinitely; any connections that open later are returned to the pool as they come in.
+ * Data sources that didn't reach their target are logged, and the pool will try again when a connection is needed.
+ */
+class DataSourceWarmUp implements ServletContainerInitializer, LifecycleListener
+{
+    private static final Log LOG = LogFactory.getLog(DataSourceWarmUp.class);
+
+    private static final int MAX_THREADS = 16;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 10;
+
+    private final StandardContext _context;
+    private final Map<String, Integer> _connectionCounts = new LinkedHashMap<>();
+    private final Map<String, Long> _maxWaitMillis = new LinkedHashMap<>();
+    // One per data source, each completing once its connections are open or it's given up waiting for them
+    private final List<CompletableFuture<Void>> _pending = new ArrayList<>();
+
+    private ExecutorService _executor;
+
+    private DataSourceWarmUp(StandardContext context)
+    {
+        _context = context;
+    }
+
+    /**
+     * Warm up the given number of connections for the named data source when the context starts
+     * @param maxWaitMillis the data source's maxWaitMillis, which bounds how long the connectors wait on the warm-up
+     */
+    static void register(StandardContext context, String name, String connectionCount, String maxWaitMillis) throws ConfigException
+    {
+        int connections;
+        try
+        {
+            connections = Integer.parseInt(connectionCount.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigException("Resource configuration error: 'warmUpConnections' must be a number for resource '%s'".formatted(name));
+        }
+        if (connections <= 0)
+            return;
+
+        DataSourceWarmUp warmUp = null;
+        for (LifecycleListener listener : context.findLifecycleListeners())
+        {
+            if (listener instanceof DataSourceWarmUp existing)
+                warmUp = existing;
+        }
+        if (warmUp == null)
+        {
+            warmUp = new DataSourceWarmUp(context);
+            context.addLifecycleListener(warmUp);
+            context.addServletContainerInitializer(warmUp, null);
+        }
+        warmUp._connectionCounts.put(name, connections);
+        warmUp._maxWaitMillis.put(name, parseMaxWait(maxWaitMillis));
+    }
+
+    /** DBCP treats a negative maxWaitMillis as waiting forever, so fall back on the default for those */
+    private static long parseMaxWait(String maxWaitMillis)
+    {
+        try
+        {
+            long result = maxWaitMillis == null ? -1 : Long.parseLong(maxWaitMillis.trim());
+            return result > 0 ? result : Long.parseLong(LabKeyServer.MAX_WAIT_MILLIS_DEFAULT);
+        }
+        catch (NumberFormatException e)
+        {
+            // The pool will complain about it
+            return Long.parseLong(LabKeyServer.MAX_WAIT_MILLIS_DEFAULT);
+        }
+    }
+
+    /**
+     * Block until the warm-up of every data source in the server's contexts has finished or timed out. Called before
+     * the connectors are started, so that the first requests find the pools ready.
+     */
+    static void awaitWarmUp(Tomcat tomcat)
+    {
+        for (Container child : tomcat.getHost().findChildren())
+        {
+            for (LifecycleListener listener : child.findLifecycleListeners())
+            {
+                if (listener instanceof DataSourceWarmUp warmUp)
+                    warmUp.await();
+            }
+        }
+    }
+
+    private void await()
+    {
+        List<CompletableFuture<Void>> pending;
+        synchronized (_pending)
+        {
+            pending = List.copyOf(_pending);
+        }
+        if (pending.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        // Each one gives up on its own after the data source's maxWaitMillis, and never completes exceptionally
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        LOG.info("Waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms for data source warm-up before starting connectors");
+    }
+
+    @Override
+    public void onStartup(Set<Class<?>> classes, ServletContext servletContext)
+    {
+        Context envContext = _context.getNamingContextListener() == null ? null : _context.getNamingContextListener().getEnvContext();
+        if (envContext == null)
+        {
+            LOG.warn("Naming isn't enabled for " + _context.getName() + ", unable to warm up data sources");
+            return;
+        }
+
+        int total = _connectionCounts.values().stream().mapToInt(Integer::intValue).sum();
+        AtomicInteger threadCount = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(Math.min(total, MAX_THREADS), r -> {
+            Thread thread = new Thread(r, "datasource-warmup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (Map.Entry<String, Integer> entry : _connectionCounts.entrySet())
+        {
+            String name = entry.getKey();
+            try
+            {
+                DataSource dataSource = (DataSource) envContext.lookup(name);
+                CompletableFuture<Void> done = warmUp(name, dataSource, entry.getValue(), _maxWaitMillis.get(name));
+                synchronized (_pending)
+                {
+                    _pending.add(done);
+                }
+            }
+            catch (NamingException | ClassCastException e)
+            {
+                LOG.warn("Unable to find data source " + name + " to warm up", e);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> warmUp(String name, DataSource dataSource, int count, long maxWaitMillis)
+    {
+        long start = System.nanoTime();
+        List<CompletableFuture<Connection>> connections = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            // Hold on to every connection until all are open, otherwise the pool would just hand back the same one
+            connections.add(CompletableFuture.supplyAsync(() -> openConnection(name, dataSource), _executor));
+        }
+
+        // The pool has no connect timeout of its own, so stop waiting on the driver after a while
+        return CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0]))
+            .orTimeout(maxWaitMillis, TimeUnit.MILLISECONDS)
+            .handle((result, t) -> {
+                int opened = 0;
+                for (CompletableFuture<Connection> future : connections)
+                {
+                    if (future.isDone() && future.getNow(null) != null)
+                        opened++;
+                    // Returns each one to the pool, ready for use, including any that finish opening later
+                    future.thenAccept(connection -> close(name, connection));
+                }
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (opened < count)
+                {
+                    String pending = t instanceof TimeoutException ? " (gave up waiting for the rest after " + maxWaitMillis + "ms)" : "";
+                    LOG.warn("Data source " + name + " didn't reach its warm-up target: opened " + opened + " of " + count + " connection(s) in " + elapsed + "ms" + pending);
+                }
+                else
+                {
+                    LOG.info("Warmed up " + count + " connection(s) for " + name + " in " + elapsed + "ms");
+                }
+                return null;
+            });
+    }
+
+    private static void close(String name, Connection connection)
+    {
+        if (connection == null)
+            return;
+        try
+        {
+            connection.close();
+        }
+        catch (SQLException e)
+        {
+            LOG.debug("Failed to return warm-up connection for " + name, e);
+        }
+    }
+
+    private Connection openConnection(String name, DataSource dataSource)
+    {
+        try
+        {
+            Connection connection = dataSource.getConnection();
+            if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS))
+            {
+                LOG.warn("Warm-up connection for " + name + " failed validation");
+                connection.close();
+                return null;
+            }
+            return connection;
+        }
+        catch (SQLException e)
+        {
+            LOG.warn("Failed to open warm-up connection for " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event)
+    {
+        if ((Lifecycle.AFTER_START_EVENT.equals(event.getType()) || Lifecycle.STOP_EVENT.equals(event.getType())) && _executor != null)
+        {
+            // Lets any warm-up that's still running finish, but doesn't hold onto the threads afterward
+            _executor.shutdown();
+            _executor = null;
+            if (Lifecycle.STOP_EVENT.equals(event.getType()))
+            {
+                synchronized (_pending)
+                {
+                    _pending.clear();
+                }
+            }
+        }
+    }
+}
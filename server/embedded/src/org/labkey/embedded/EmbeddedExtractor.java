@@ -3,32 +3,53 @@
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.labkey.bootstrap.CommonsLogger;
 import org.labkey.bootstrap.ConfigException;
+import org.labkey.bootstrap.ExplodedModule;
+import org.labkey.bootstrap.ModuleArchive;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class EmbeddedExtractor
 {
     private static final Log LOG = LogFactory.getLog(EmbeddedExtractor.class);
     private static final int BUFFER_SIZE = 1024 * 64;
     public static final String LABKEYWEBAPP = "labkeywebapp";
+    private static final String DISTRIBUTION_ZIP = "labkey/distribution.zip";
     /**
      * Directories that are expected to exist in 'distribution.zip'.
      */
     private static final Set<String> EXPECTED_DIST_DIRS = Set.of(LABKEYWEBAPP, "modules");
+    /**
+     * Location, relative to the webapp directory, of the record of every file extracted from 'distribution.zip' with
+     * its CRC and size. Lets an upgrade rewrite only the files that changed and remove only the files that were dropped.
+     */
+    private static final String DISTRIBUTION_MANIFEST = "WEB-INF/distribution.manifest";
+    /**
+     * Location, relative to the webapp directory, of the digest of the 'distribution.zip' that was last extracted
+     */
+    private static final String DISTRIBUTION_DIGEST = "WEB-INF/distribution.digest";
 
     private final File currentDir = new File("").getAbsoluteFile();
     private final File labkeyServerJar;
@@ -73,11 +94,11 @@ private File verifyJar()
         return labkeyServerJar;
     }
 
-    private boolean shouldExtract(File webAppLocation)
+    private boolean shouldExtract(File webAppLocation, DistributionZip incoming)
     {
         File existingDistributionFile = new File(webAppLocation, "WEB-INF/classes/distribution.properties");
 
-        LabKeyDistributionInfo incomingDistribution = getDistributionInfo();
+        LabKeyDistributionInfo incomingDistribution = incoming.getInfo();
 
         // Fresh installation or upgrading from a pre-distribution.properties distribution
         if (!existingDistributionFile.exists())
@@ -116,85 +137,8 @@ else if (incomingDistribution.buildUrl() == null)
         }
     }
 
-    /**
-     * Extract distribution info from bundled distribution.zip.
-     * Also verifies that distribution.zip contains expected files
-     * @return An object describing the distribution
-     */
-    private LabKeyDistributionInfo getDistributionInfo()
-    {
-        LabKeyDistributionInfo info = null;
-
-        try
-        {
-            try (JarFile jar = new JarFile(verifyJar()))
-            {
-                var entries = jar.entries();
-                while (entries.hasMoreElements())
-                {
-                    var entry = entries.nextElement();
-                    var entryName = entry.getName();
-
-                    if ("labkey/distribution.zip".equals(entryName))
-                    {
-                        Set<String> distributionDirs = new HashSet<>();
-                        try (ZipInputStream zipIn = new ZipInputStream(jar.getInputStream(entry)))
-                        {
-                            ZipEntry zipEntry = zipIn.getNextEntry();
-                            // iterates over entries in the zip file
-                            while (zipEntry != null)
-                            {
-                                distributionDirs.add(zipEntry.getName().split("/", 2)[0]);
-                                if (!zipEntry.isDirectory() && zipEntry.getName().equals(LABKEYWEBAPP + "/WEB-INF/classes/distribution.properties"))
-                                {
-                                    info = getFromProperties(zipIn);
-                                }
-                                zipIn.closeEntry();
-                                zipEntry = zipIn.getNextEntry();
-                            }
-                        }
-
-                        if (!distributionDirs.equals(EXPECTED_DIST_DIRS))
-                        {
-                            StringBuilder msg = new StringBuilder("Corrupted distribution; contents are not as expected.");
-
-                            Set<String> missingDirs = EXPECTED_DIST_DIRS.stream().filter(d -> !distributionDirs.contains(d)).collect(Collectors.toSet());
-                            if (!missingDirs.isEmpty())
-                            {
-                                msg.append(" Missing directories: ");
-                                msg.append(missingDirs);
-                                msg.append(".");
-                            }
-
-                            Set<String> extraDirs = distributionDirs.stream().filter(d -> !EXPECTED_DIST_DIRS.contains(d)).collect(Collectors.toSet());
-                            if (!extraDirs.isEmpty())
-                            {
-                                msg.append(" Unexpected directories: ");
-                                msg.append(extraDirs);
-                                msg.append(".");
-                            }
-
-                            throw new IllegalStateException(msg.toString());
-                        }
-
-                        if (null == info)
-                            throw new IllegalStateException("distribution.properties file was not found!");
-
-                        return info;
-                    }
-                }
-
-                throw new ConfigException("Unable to find distribution zip required to run LabKey Server.");
-            }
-        }
-        catch (IOException | ConfigException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
     // Caller must close the stream
-    private LabKeyDistributionInfo getFromProperties(InputStream in) throws IOException
+    private static LabKeyDistributionInfo getFromProperties(InputStream in) throws IOException
     {
         Properties props = new Properties();
         props.load(in);
@@ -210,11 +154,53 @@ private LabKeyDistributionInfo getFromProperties(InputStream in) throws IOExcept
 
     public void extractDistribution(File webAppLocation)
     {
-        if (shouldExtract(webAppLocation))
+        try
         {
-            labkeyWebappDirName = webAppLocation.getName();
-            deleteOldDistribution(webAppLocation);
-            extractExecutableJar(webAppLocation.getParentFile(), false);
+            try (JarFile jar = new JarFile(verifyJar()))
+            {
+                ZipEntry distributionEntry = getDistributionZipEntry(jar);
+                File digestFile = new File(webAppLocation, DISTRIBUTION_DIGEST);
+                String digest = getDigest(distributionEntry);
+
+                // The jar's central directory gives us the CRC of the embedded zip for free. If it matches what we
+                // extracted last time, there's no need to even open it. This lets custom builds, which lack the
+                // buildUrl that makes a version check conclusive, skip extraction on restart too.
+                if (digestFile.isFile() && new File(webAppLocation, "WEB-INF/classes/distribution.properties").isFile() &&
+                        digest.equals(Files.readString(digestFile.toPath(), StandardCharsets.UTF_8).trim()))
+                {
+                    LOG.info("LabKey distribution is unchanged since it was last extracted (" + digest + ")");
+                    return;
+                }
+
+                try (DistributionZip incoming = new DistributionZip(jar, distributionEntry))
+                {
+                    if (!shouldExtract(webAppLocation, incoming))
+                    {
+                        Files.writeString(digestFile.toPath(), digest, StandardCharsets.UTF_8);
+                        return;
+                    }
+
+                    Files.deleteIfExists(digestFile.toPath());
+                    labkeyWebappDirName = webAppLocation.getName();
+                    Map<String, ManifestEntry> previousManifest = readManifest(webAppLocation);
+                    if (previousManifest == null || !removeChangedModules(incoming, webAppLocation.getParentFile(), previousManifest))
+                    {
+                        // No record of what the previous installation extracted, or we couldn't clean up after a
+                        // module that changed, so we can't safely upgrade in place
+                        deleteOldDistribution(webAppLocation);
+                        extractDistributionZip(incoming, webAppLocation.getParentFile());
+                    }
+                    else
+                    {
+                        upgradeDistribution(incoming, webAppLocation.getParentFile(), previousManifest);
+                    }
+                    Files.writeString(digestFile.toPath(), digest, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        catch (IOException | ConfigException e)
+        {
+            throw new RuntimeException(e);
         }
     }
 
@@ -224,23 +210,17 @@ public void extractExecutableJar(File destDirectory, boolean remotePipeline)
         {
             try (JarFile jar = new JarFile(verifyJar()))
             {
-                boolean foundDistributionZip = false;
-                var entries = jar.entries();
-                while (entries.hasMoreElements())
+                try (DistributionZip distributionZip = new DistributionZip(jar, getDistributionZipEntry(jar)))
                 {
-                    var entry = entries.nextElement();
-                    var entryName = entry.getName();
+                    extractDistributionZip(distributionZip, destDirectory);
+                }
 
-                    if ("labkey/distribution.zip".equals(entryName))
-                    {
-                        foundDistributionZip = true;
-                        try (var distInputStream = jar.getInputStream(entry))
-                        {
-                            extractDistributionZip(distInputStream, destDirectory);
-                        }
-                    }
-                    if (remotePipeline)
+                if (remotePipeline)
+                {
+                    var entries = jar.entries();
+                    while (entries.hasMoreElements())
                     {
+                        var entry = entries.nextElement();
                         if (entry.getName().contains("labkeyBootstrap") && entry.getName().toLowerCase().endsWith(".jar"))
                         {
                             try (var in = jar.getInputStream(entry))
@@ -265,11 +245,6 @@ public void extractExecutableJar(File destDirectory, boolean remotePipeline)
                         }
                     }
                 }
-
-                if (!foundDistributionZip)
-                {
-                    throw new ConfigException("Unable to find distribution zip required to run LabKey Server.");
-                }
             }
         }
         catch (IOException | ConfigException e)
@@ -278,43 +253,276 @@ public void extractExecutableJar(File destDirectory, boolean remotePipeline)
         }
     }
 
-    private void extractDistributionZip(InputStream zipInputStream, File destDir) throws IOException
+    private ZipEntry getDistributionZipEntry(JarFile jar)
+    {
+        ZipEntry entry = jar.getEntry(DISTRIBUTION_ZIP);
+        if (entry == null)
+        {
+            throw new ConfigException("Unable to find distribution zip required to run LabKey Server.");
+        }
+        return entry;
+    }
+
+    /**
+     * @return a digest of the embedded 'distribution.zip' from the CRC and size in the executable jar's central directory
+     */
+    private static String getDigest(ZipEntry distributionEntry)
+    {
+        return Long.toHexString(distributionEntry.getCrc()) + ":" + distributionEntry.getSize();
+    }
+
+    private void extractDistributionZip(DistributionZip distributionZip, File destDir) throws IOException
     {
         //noinspection SSBasedInspection
         if (!destDir.exists() && !destDir.mkdirs())
         {
             throw new IOException("Failed to create directory " + destDir + " - please check file system permissions");
         }
-        try (ZipInputStream zipIn = new ZipInputStream(zipInputStream))
+        Map<String, ManifestEntry> manifest = new HashMap<>();
+        // Top-level directories that this extraction created, which the zip may list after files within them
+        Set<File> createdDirs = new HashSet<>();
+        ZipFile zipFile = distributionZip.getZipFile();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        // iterates over entries in the zip file
+        while (entries.hasMoreElements())
         {
-            ZipEntry entry = zipIn.getNextEntry();
-            // iterates over entries in the zip file
-            while (entry != null)
+            ZipEntry entry = entries.nextElement();
+            File filePath = getTargetFile(destDir, entry.getName());
+            File topLevelDir = getTopLevelDir(destDir, filePath);
+            if (!topLevelDir.exists())
+            {
+                createdDirs.add(topLevelDir);
+            }
+
+            if (!entry.isDirectory())
             {
-                String entryName = labkeyWebappDirName == null
-                        ? entry.getName()
-                        : entry.getName().replaceFirst("^" + LABKEYWEBAPP, labkeyWebappDirName);
-                File filePath = new File(destDir, entryName);
-                if (!entry.isDirectory())
+                // if the entry is a file, extracts it
+                ensureParentDirectory(filePath);
+                try (InputStream in = zipFile.getInputStream(entry))
                 {
-                    // if the entry is a file, extracts it
-                    extractFile(zipIn, filePath);
+                    extractFile(in, filePath);
                 }
-                else
+                manifest.put(entry.getName(), new ManifestEntry(entry.getCrc(), entry.getSize()));
+            }
+            else
+            {
+                if (filePath.exists() && filePath.getParentFile().equals(destDir) && !createdDirs.contains(filePath))
                 {
-                    if (filePath.exists() && filePath.getParentFile().equals(destDir))
-                    {
-                        throw new ConfigException("Delete or backup existing LabKey deployment at: " + filePath.getAbsolutePath());
-                    }
-                    // if the entry is a directory, make the directory
-                    //noinspection SSBasedInspection
-                    if (!filePath.exists() && !filePath.mkdirs())
-                    {
-                        throw new IOException("Failed to create directory " + filePath + " - please check file system permissions");
-                    }
+                    throw new ConfigException("Delete or backup existing LabKey deployment at: " + filePath.getAbsolutePath());
+                }
+                // if the entry is a directory, make the directory
+                //noinspection SSBasedInspection
+                if (!filePath.exists() && !filePath.mkdirs())
+                {
+                    throw new IOException("Failed to create directory " + filePath + " - please check file system permissions");
                 }
-                zipIn.closeEntry();
-                entry = zipIn.getNextEntry();
+            }
+        }
+
+        if (labkeyWebappDirName != null)
+        {
+            writeManifest(new File(destDir, labkeyWebappDirName), manifest);
+        }
+    }
+
+    /**
+     * @return the directory or file directly within destDir that contains file
+     */
+    private static File getTopLevelDir(File destDir, File file)
+    {
+        File topLevel = file;
+        while (topLevel.getParentFile() != null && !topLevel.getParentFile().equals(destDir))
+        {
+            topLevel = topLevel.getParentFile();
+        }
+        return topLevel;
+    }
+
+    /**
+     * Before upgrading in place, undeploy every module whose archive changed or was dropped from the distribution:
+     * remove the files it deployed into the webapp and its exploded directory. Otherwise, files that the new version
+     * no longer has, or that have versioned names like JSP jars, would stay in WEB-INF next to the new ones.
+     * @return false if a module couldn't be undeployed, in which case the whole installation should be re-extracted
+     */
+    private boolean removeChangedModules(DistributionZip distributionZip, File destDir, Map<String, ManifestEntry> previousManifest)
+    {
+        ZipFile zipFile = distributionZip.getZipFile();
+        for (Map.Entry<String, ManifestEntry> previous : previousManifest.entrySet())
+        {
+            if (!previous.getKey().toLowerCase().endsWith(ModuleArchive.FILE_EXTENSION))
+            {
+                continue;
+            }
+
+            ZipEntry entry = zipFile.getEntry(previous.getKey());
+            if (entry != null && previous.getValue().equals(new ManifestEntry(entry.getCrc(), entry.getSize())))
+            {
+                continue;
+            }
+
+            File archive = getTargetFile(destDir, previous.getKey());
+            if (!archive.isFile())
+            {
+                continue;
+            }
+
+            try
+            {
+                undeployModule(archive, destDir, entry == null);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                LOG.warn("Unable to remove the previous version of module " + archive.getAbsolutePath() + ". Re-extracting the whole distribution.", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the module's exploded directory and everything it deployed to the webapp, reading its name from the
+     * archive that is about to be replaced or deleted
+     */
+    private void undeployModule(File archive, File destDir, boolean dropped) throws IOException
+    {
+        File explodedDir = new ModuleArchive(archive, new CommonsLogger(EmbeddedExtractor.class)).getDefaultExplodedLocation();
+        if (explodedDir.isDirectory())
+        {
+            LOG.info((dropped ? "Removing module that is no longer in the distribution: " : "Removing previous version of module: ") + explodedDir.getAbsolutePath());
+            new ExplodedModule(explodedDir).removeFromWebApp(new File(destDir, labkeyWebappDirName));
+            FileUtils.forceDelete(explodedDir);
+        }
+    }
+
+    /**
+     * Upgrade a previously extracted distribution in place. Files whose CRC and size match the previous manifest are
+     * left untouched, which preserves the timestamps of unchanged '.module' files so that their exploded directories
+     * aren't re-extracted. Files that are no longer in the distribution are deleted. Modules that changed or were
+     * dropped must already have been undeployed by {@link #removeChangedModules}.
+     */
+    private void upgradeDistribution(DistributionZip distributionZip, File destDir, Map<String, ManifestEntry> previousManifest) throws IOException
+    {
+        Map<String, ManifestEntry> manifest = new HashMap<>();
+        int written = 0;
+        ZipFile zipFile = distributionZip.getZipFile();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements())
+        {
+            ZipEntry entry = entries.nextElement();
+            File filePath = getTargetFile(destDir, entry.getName());
+            if (entry.isDirectory())
+            {
+                //noinspection SSBasedInspection
+                if (!filePath.exists() && !filePath.mkdirs())
+                {
+                    throw new IOException("Failed to create directory " + filePath + " - please check file system permissions");
+                }
+                continue;
+            }
+
+            // ZipFile reads CRCs and sizes from the central directory, so we only need to inflate the entries that changed
+            ManifestEntry incoming = new ManifestEntry(entry.getCrc(), entry.getSize());
+            manifest.put(entry.getName(), incoming);
+
+            if (!incoming.equals(previousManifest.get(entry.getName())) || !filePath.isFile() || filePath.length() != incoming.size())
+            {
+                LOG.debug("Extracting updated file: " + filePath);
+                ensureParentDirectory(filePath);
+                try (InputStream in = zipFile.getInputStream(entry))
+                {
+                    extractFile(in, filePath);
+                }
+                written++;
+            }
+        }
+
+        int deleted = 0;
+        for (String removedEntry : previousManifest.keySet())
+        {
+            if (!manifest.containsKey(removedEntry))
+            {
+                deleteRemovedFile(getTargetFile(destDir, removedEntry));
+                deleted++;
+            }
+        }
+
+        writeManifest(new File(destDir, labkeyWebappDirName), manifest);
+        LOG.info("Upgraded LabKey distribution in place. Wrote %d of %d file(s) and removed %d file(s).".formatted(written, manifest.size(), deleted));
+    }
+
+    private static void ensureParentDirectory(File file) throws IOException
+    {
+        File parent = file.getParentFile();
+        //noinspection SSBasedInspection
+        if (!parent.exists() && !parent.mkdirs())
+        {
+            throw new IOException("Failed to create directory " + parent + " - please check file system permissions");
+        }
+    }
+
+    private void deleteRemovedFile(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            return;
+        }
+
+        LOG.debug("Deleting file from previous LabKey installation: " + file.getAbsolutePath());
+        FileUtils.forceDelete(file);
+    }
+
+    private File getTargetFile(File destDir, String entryName)
+    {
+        return new File(destDir, labkeyWebappDirName == null
+                ? entryName
+                : entryName.replaceFirst("^" + LABKEYWEBAPP, labkeyWebappDirName));
+    }
+
+    /**
+     * @return the files recorded by the previous extraction, or null if there's no usable manifest
+     */
+    private Map<String, ManifestEntry> readManifest(File webAppLocation)
+    {
+        File manifestFile = new File(webAppLocation, DISTRIBUTION_MANIFEST);
+        if (!manifestFile.isFile())
+        {
+            return null;
+        }
+
+        Map<String, ManifestEntry> manifest = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                // <crc> <size> <entry name>
+                String[] parts = line.split(" ", 3);
+                if (parts.length != 3)
+                {
+                    LOG.warn("Ignoring malformed distribution manifest " + manifestFile.getAbsolutePath());
+                    return null;
+                }
+                manifest.put(parts[2], new ManifestEntry(Long.parseLong(parts[0], 16), Long.parseLong(parts[1])));
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            LOG.warn("Unable to read distribution manifest " + manifestFile.getAbsolutePath(), e);
+            return null;
+        }
+
+        return manifest;
+    }
+
+    private void writeManifest(File webAppLocation, Map<String, ManifestEntry> manifest) throws IOException
+    {
+        File manifestFile = new File(webAppLocation, DISTRIBUTION_MANIFEST);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8))
+        {
+            for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet())
+            {
+                writer.write(Long.toHexString(entry.getValue().crc()) + " " + entry.getValue().size() + " " + entry.getKey());
+                writer.newLine();
             }
         }
     }
@@ -332,6 +540,109 @@ private static void extractFile(InputStream zipIn, File filePath) throws IOExcep
         }
     }
 
+    /**
+     * The 'distribution.zip' embedded in the executable jar. It's copied out to a temporary file once so that its
+     * contents can be validated and its metadata read from the central directory, and then extracted from the same
+     * copy, instead of inflating the whole nested stream once to inspect it and again to extract it. The copy goes in
+     * java.io.tmpdir rather than next to the installation, so a process that's killed before cleaning up doesn't
+     * leave it behind there.
+     */
+    private static class DistributionZip implements Closeable
+    {
+        private final File _file;
+        private final ZipFile _zipFile;
+        private LabKeyDistributionInfo _info;
+
+        private DistributionZip(JarFile jar, ZipEntry entry) throws IOException
+        {
+            _file = Files.createTempFile("labkey-distribution", ".zip").toFile();
+            try
+            {
+                try (InputStream in = jar.getInputStream(entry))
+                {
+                    Files.copy(in, _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                _zipFile = new ZipFile(_file);
+            }
+            catch (IOException e)
+            {
+                Files.deleteIfExists(_file.toPath());
+                throw e;
+            }
+        }
+
+        public ZipFile getZipFile()
+        {
+            return _zipFile;
+        }
+
+        /**
+         * Extract distribution info from bundled distribution.zip.
+         * Also verifies that distribution.zip contains expected files
+         * @return An object describing the distribution
+         */
+        public LabKeyDistributionInfo getInfo()
+        {
+            if (_info == null)
+            {
+                Set<String> distributionDirs = _zipFile.stream()
+                    .map(zipEntry -> zipEntry.getName().split("/", 2)[0])
+                    .collect(Collectors.toSet());
+
+                if (!distributionDirs.equals(EXPECTED_DIST_DIRS))
+                {
+                    StringBuilder msg = new StringBuilder("Corrupted distribution; contents are not as expected.");
+
+                    Set<String> missingDirs = EXPECTED_DIST_DIRS.stream().filter(d -> !distributionDirs.contains(d)).collect(Collectors.toSet());
+                    if (!missingDirs.isEmpty())
+                    {
+                        msg.append(" Missing directories: ");
+                        msg.append(missingDirs);
+                        msg.append(".");
+                    }
+
+                    Set<String> extraDirs = distributionDirs.stream().filter(d -> !EXPECTED_DIST_DIRS.contains(d)).collect(Collectors.toSet());
+                    if (!extraDirs.isEmpty())
+                    {
+                        msg.append(" Unexpected directories: ");
+                        msg.append(extraDirs);
+                        msg.append(".");
+                    }
+
+                    throw new IllegalStateException(msg.toString());
+                }
+
+                ZipEntry propertiesEntry = _zipFile.getEntry(LABKEYWEBAPP + "/WEB-INF/classes/distribution.properties");
+                if (null == propertiesEntry || propertiesEntry.isDirectory())
+                    throw new IllegalStateException("distribution.properties file was not found!");
+
+                try (InputStream in = _zipFile.getInputStream(propertiesEntry))
+                {
+                    _info = getFromProperties(in);
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            return _info;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                _zipFile.close();
+            }
+            finally
+            {
+                Files.deleteIfExists(_file.toPath());
+            }
+        }
+    }
+
     /**
      * Delete all files from the previously extracted 'distribution.zip'
      * @param webAppLocation file object for 'labkeywebapp' directory
@@ -377,4 +688,14 @@ public String toString()
     {
         return distributionName + ":" + version + (buildUrl != null ? ":" + buildUrl : "");
     }
+}
+
+/**
+ * A file extracted from 'distribution.zip', as recorded in the distribution manifest
+ *
+ * @param crc  CRC-32 of the uncompressed content
+ * @param size uncompressed size in bytes
+ */
+record ManifestEntry(long crc, long size)
+{
 }
\ No newline at end of file
@@ -34,15 +34,21 @@
 import org.apache.logging.log4j.core.lookup.StrSubstitutor;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -62,21 +68,31 @@ public class LabKeyDeleteAction extends AbstractPathAction
 {
     public static final int MAX_RETAINED = 3;
     /**
-     * Don't retain more than one file per session
+     * Don't retain more than one file per session. Rollover actions may run on a background thread, particularly when
+     * logging asynchronously, so this and the date format must be safe to use from any thread.
      */
-    private static boolean _copiedOriginal = false;
+    private static final AtomicBoolean _copiedOriginal = new AtomicBoolean(false);
 
     /**
      * Remember when we started up so we can compare file timestamps against it
      */
     private static final Date _startup = new Date();
 
-    private static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
 
+    private static final String ERROR_LOG_NAME = "labkey-errors.log";
+
     private final PathSorter pathSorter;
     private final boolean testMode;
 
+    /**
+     * The error logs found by the last rollover, so the next one only needs to check those and any newly rotated file
+     * rather than walk and sort everything in the log directory. Null until the first rollover, or after a failure,
+     * when it's rebuilt from a listing of just the error log files.
+     */
+    private Set<Path> errorLogIndex = null;
+
     /**
      * Creates a new DeleteAction that starts scanning for files to delete from the specified base path.
      *
@@ -126,16 +142,75 @@ private boolean executeDelete() throws IOException {
     }
 
     private List<PathWithAttributes> selectFiles() throws IOException {
-        final List<PathWithAttributes> sortedPaths = getSortedPaths();
+        final List<PathWithAttributes> sortedPaths = getSortedErrorLogPaths();
         trace("Sorted paths:", sortedPaths);
         return selectFilesToDelete(getBasePath(), sortedPaths);
     }
 
+    /**
+     * Log4j runs this action on its own thread after the rollover, so the logging thread never waits for it. Even so,
+     * the work here depends only on the number of error logs, not on whatever else is in the log directory.
+     *
+     * @return the error log files, sorted with the most recently modified first
+     */
+    synchronized List<PathWithAttributes> getSortedErrorLogPaths() throws IOException {
+        Path basePath = getBasePath();
+        Set<Path> candidates = new HashSet<>();
+        try {
+            if (errorLogIndex == null) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(basePath, ERROR_LOG_NAME + "*")) {
+                    stream.forEach(candidates::add);
+                }
+            } else {
+                candidates.addAll(errorLogIndex);
+                candidates.add(basePath.resolve(ERROR_LOG_NAME));
+                // With fileIndex="min", each rollover shifts the rotated files up by one, so the only new name is past
+                // the highest index we know about
+                int next = 1;
+                for (Path path : errorLogIndex) {
+                    next = Math.max(next, getRotationIndex(path) + 1);
+                }
+                Path rotated;
+                while (Files.exists(rotated = basePath.resolve(ERROR_LOG_NAME + "." + next))) {
+                    candidates.add(rotated);
+                    next++;
+                }
+            }
+
+            List<PathWithAttributes> result = new ArrayList<>(candidates.size());
+            for (Path path : candidates) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        result.add(new PathWithAttributes(path, attributes));
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted or moved since we last looked
+                }
+            }
+            errorLogIndex = result.stream().map(PathWithAttributes::getPath).collect(Collectors.toSet());
+            result.sort(pathSorter);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            errorLogIndex = null;
+            throw e;
+        }
+    }
+
+    /** @return the N in labkey-errors.log.N, or 0 for anything else */
+    private static int getRotationIndex(Path path) {
+        String name = path.getFileName().toString();
+        if (name.length() > ERROR_LOG_NAME.length() + 1 && name.startsWith(ERROR_LOG_NAME + ".")) {
+            try {
+                return Integer.parseInt(name.substring(ERROR_LOG_NAME.length() + 1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 0;
+    }
+
     private List<PathWithAttributes> selectFilesToDelete(Path basePath, List<PathWithAttributes> paths)
     {
-        // Narrow to just the error log files
-        paths = paths.stream().filter(p -> p.getPath().toString().contains("labkey-errors.log")).collect(Collectors.toList());
-
         List<PathWithAttributes> result = new ArrayList<>();
 
         // Look for the first file from the current set of logging to move it away instead of rotating it
@@ -157,9 +232,9 @@ private List<PathWithAttributes> selectFilesToDelete(Path basePath, List<PathWit
             result.add(path);
         }
 
-        if (logToRetain != null && !_copiedOriginal && logToRetain.getAttributes().size() > 0)
+        if (logToRetain != null && logToRetain.getAttributes().size() > 0 && _copiedOriginal.compareAndSet(false, true))
         {
-            Path target = logToRetain.getPath().getParent().resolve("labkey-errors-" + DATE_FORMAT.format(new Date()) + ".log");
+            Path target = logToRetain.getPath().getParent().resolve("labkey-errors-" + DATE_FORMAT.format(LocalDate.now()) + ".log");
             LOGGER.info("Retaining labkey-errors.log file before it gets deleted by rotation. Copying to " + target);
 
             try
@@ -172,7 +247,6 @@ private List<PathWithAttributes> selectFilesToDelete(Path basePath, List<PathWit
             {
                 LOGGER.warn("Failed to retain error log file " + logToRetain.getPath(), e);
             }
-            _copiedOriginal = true;
         }
 
         return result;
@@ -35,6 +35,24 @@
     static final String MAX_WAIT_MILLIS_DEFAULT = "120000";
     static final String ACCESS_TO_CONNECTION_ALLOWED_DEFAULT = "true";
     static final String VALIDATION_QUERY_DEFAULT = "SELECT 1";
+    // Statement pooling is opt-in, but cap the number of open statements per connection when it's on
+    static final String POOL_PREPARED_STATEMENTS_DEFAULT = "false";
+    static final String MAX_OPEN_PREPARED_STATEMENTS_DEFAULT = "100";
+    static final String MIN_IDLE_DEFAULT = "2";
+    // The evictor is what maintains minIdle and closes connections that have been idle too long
+    static final String TIME_BETWEEN_EVICTION_RUNS_MILLIS_DEFAULT = "300000";
+    static final String MIN_EVICTABLE_IDLE_TIME_MILLIS_DEFAULT = "1800000";
+    // Pool-level MBeans are enough; one per connection just adds churn to JMX
+    static final String REGISTER_CONNECTION_MBEAN_DEFAULT = "false";
+    // Connections to open in parallel during startup, off unless configured. Beyond maxIdle, extras are closed as soon
+    // as they're returned.
+    static final String WARM_UP_CONNECTIONS_DEFAULT = "0";
+    // Query timing is off unless a data source sets a sample rate or a slow query threshold
+    static final String QUERY_TIMING_SAMPLE_RATE_DEFAULT = "0";
+    static final String SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT = "0";
+    // Bounds for pools with adaptivePoolSizing enabled
+    static final String ADAPTIVE_MIN_TOTAL_DEFAULT = "10";
+    static final String ADAPTIVE_MAX_TOTAL_DEFAULT = "100";
 
     public static void main(String[] args)
     {
@@ -112,6 +130,27 @@ public JsonAccessLog jsonAccessLog()
         return new JsonAccessLog();
     }
 
+    /** Latency histograms recorded when server.tomcat.recordRequestLatency is set. Also the "requestlatency" actuator endpoint. */
+    @Bean
+    public RequestLatencyStatistics requestLatencyStatistics()
+    {
+        return new RequestLatencyStatistics();
+    }
+
+    /** The "datasources" actuator endpoint, reporting the connection pools' state */
+    @Bean
+    public DataSourceStatistics dataSourceStatistics()
+    {
+        return new DataSourceStatistics();
+    }
+
+    /** The "querytiming" actuator endpoint, reporting statement timings for data sources that collect them */
+    @Bean
+    public QueryTimingStatistics queryTimingStatistics()
+    {
+        return QueryTimingStatistics.get();
+    }
+
     @Bean
     public WebServerFactoryCustomizer<TomcatServletWebServerFactory> customizer()
     {
@@ -145,6 +184,17 @@ public TomcatServletWebServerFactory servletContainerFactory()
         private String pattern = "%h %t %m %U %s %b %D %S \"%{Referer}i\" \"%{User-Agent}i\" %{LABKEY.username}s";
         private String conditionIf;
         private String conditionUnless;
+        private int queueCapacity = 10_000;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        /** What to do with a record when the background writer has fallen behind and its queue is full */
+        public enum OverflowPolicy
+        {
+            /** Make the request thread wait until there's room in the queue */
+            BLOCK,
+            /** Discard the record and count it as dropped */
+            DROP
+        }
 
         public boolean isEnabled()
         {
@@ -185,6 +235,26 @@ public void setConditionUnless(String conditionUnless)
         {
             this.conditionUnless = conditionUnless;
         }
+
+        public int getQueueCapacity()
+        {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity)
+        {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public OverflowPolicy getOverflowPolicy()
+        {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(OverflowPolicy overflowPolicy)
+        {
+            this.overflowPolicy = overflowPolicy;
+        }
     }
 
     @Bean
@@ -319,6 +389,69 @@ public void setRequestDecorate(String requestDecorate)
         }
     }
 
+    /**
+     * Values that we'll propagate to an org.apache.coyote.http2.Http2Protocol on every connector. Unlike Spring Boot's
+     * server.http2.enabled, this also covers the additional context.httpPort connector, where it provides h2c.
+     */
+    public static class Http2Properties
+    {
+        private boolean _enabled;
+        private Long _maxConcurrentStreams;
+        private Integer _maxConcurrentStreamExecution;
+        private Integer _initialWindowSize;
+        private Long _keepAliveTimeout;
+
+        public boolean isEnabled()
+        {
+            return _enabled;
+        }
+
+        public void setEnabled(boolean enabled)
+        {
+            _enabled = enabled;
+        }
+
+        public Long getMaxConcurrentStreams()
+        {
+            return _maxConcurrentStreams;
+        }
+
+        public void setMaxConcurrentStreams(Long maxConcurrentStreams)
+        {
+            _maxConcurrentStreams = maxConcurrentStreams;
+        }
+
+        public Integer getMaxConcurrentStreamExecution()
+        {
+            return _maxConcurrentStreamExecution;
+        }
+
+        public void setMaxConcurrentStreamExecution(Integer maxConcurrentStreamExecution)
+        {
+            _maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+        }
+
+        public Integer getInitialWindowSize()
+        {
+            return _initialWindowSize;
+        }
+
+        public void setInitialWindowSize(Integer initialWindowSize)
+        {
+            _initialWindowSize = initialWindowSize;
+        }
+
+        public Long getKeepAliveTimeout()
+        {
+            return _keepAliveTimeout;
+        }
+
+        public void setKeepAliveTimeout(Long keepAliveTimeout)
+        {
+            _keepAliveTimeout = keepAliveTimeout;
+        }
+    }
+
     /** Add some properties that Spring Boot doesn't support setting. See issue 50690 */
     @Configuration
     @ConfigurationProperties("server.tomcat")
@@ -327,8 +460,13 @@ public void setRequestDecorate(String requestDecorate)
         private Boolean _useSendfile;
         private Boolean _disableUploadTimeout;
         private Boolean _useBodyEncodingForURI;
+        private Boolean _useVirtualThreads;
+        private Boolean _precompressedResources;
+        private Boolean _recordRequestLatency;
+        private Boolean _compressedSessionStore;
 
         private CorsProperties _cors;
+        private Http2Properties _http2;
 
         public Boolean getUseSendfile()
         {
@@ -360,6 +498,49 @@ public void setUseBodyEncodingForURI(Boolean useBodyEncodingForURI)
             _useBodyEncodingForURI = useBodyEncodingForURI;
         }
 
+        public Boolean getUseVirtualThreads()
+        {
+            return _useVirtualThreads;
+        }
+
+        /** Process requests on virtual threads instead of a fixed pool of platform threads. Requires Java 21 or later. */
+        public void setUseVirtualThreads(Boolean useVirtualThreads)
+        {
+            _useVirtualThreads = useVirtualThreads;
+        }
+
+        public Boolean getPrecompressedResources()
+        {
+            return _precompressedResources;
+        }
+
+        /** Gzip module web resources when they're deployed and serve those copies instead of compressing per request */
+        public void setPrecompressedResources(Boolean precompressedResources)
+        {
+            _precompressedResources = precompressedResources;
+        }
+
+        public Boolean getRecordRequestLatency()
+        {
+            return _recordRequestLatency;
+        }
+
+        /** Keep per-endpoint latency histograms, available via JMX and the "requestlatency" management endpoint */
+        public void setRecordRequestLatency(Boolean recordRequestLatency)
+        {
+            _recordRequestLatency = recordRequestLatency;
+        }
+
+        public Boolean getCompressedSessionStore()
+        {
+            return _compressedSessionStore;
+        }
+
+        public void setCompressedSessionStore(Boolean compressedSessionStore)
+        {
+            _compressedSessionStore = compressedSessionStore;
+        }
+
         public CorsProperties getCors()
         {
             return _cors;
@@ -369,6 +550,16 @@ public void setCors(CorsProperties cors)
         {
             _cors = cors;
         }
+
+        public Http2Properties getHttp2()
+        {
+            return _http2;
+        }
+
+        public void setHttp2(Http2Properties http2)
+        {
+            _http2 = http2;
+        }
     }
 
     /**
@@ -422,6 +613,13 @@ public void setConfig(String config)
         private Map<Integer, String> maxWaitMillis;
         private Map<Integer, String> accessToUnderlyingConnectionAllowed;
         private Map<Integer, String> validationQuery;
+        private Map<Integer, String> validationStrategy;
+        private Map<Integer, String> poolPreparedStatements;
+        private Map<Integer, String> maxOpenPreparedStatements;
+        private Map<Integer, String> minIdle;
+        private Map<Integer, String> timeBetweenEvictionRunsMillis;
+        private Map<Integer, String> minEvictableIdleTimeMillis;
+        private Map<Integer, String> warmUpConnections;
         private Map<Integer, String> displayName;
         private Map<Integer, String> logQueries;
         private Map<String, Map<String, Map<String, String>>> resources;
@@ -638,6 +836,76 @@ public void setValidationQuery(Map<Integer, String> validationQuery)
             this.validationQuery = validationQuery;
         }
 
+        public Map<Integer, String> getValidationStrategy()
+        {
+            return validationStrategy;
+        }
+
+        public void setValidationStrategy(Map<Integer, String> validationStrategy)
+        {
+            this.validationStrategy = validationStrategy;
+        }
+
+        public Map<Integer, String> getPoolPreparedStatements()
+        {
+            return poolPreparedStatements;
+        }
+
+        public void setPoolPreparedStatements(Map<Integer, String> poolPreparedStatements)
+        {
+            this.poolPreparedStatements = poolPreparedStatements;
+        }
+
+        public Map<Integer, String> getMaxOpenPreparedStatements()
+        {
+            return maxOpenPreparedStatements;
+        }
+
+        public void setMaxOpenPreparedStatements(Map<Integer, String> maxOpenPreparedStatements)
+        {
+            this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+        }
+
+        public Map<Integer, String> getMinIdle()
+        {
+            return minIdle;
+        }
+
+        public void setMinIdle(Map<Integer, String> minIdle)
+        {
+            this.minIdle = minIdle;
+        }
+
+        public Map<Integer, String> getTimeBetweenEvictionRunsMillis()
+        {
+            return timeBetweenEvictionRunsMillis;
+        }
+
+        public void setTimeBetweenEvictionRunsMillis(Map<Integer, String> timeBetweenEvictionRunsMillis)
+        {
+            this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+        }
+
+        public Map<Integer, String> getMinEvictableIdleTimeMillis()
+        {
+            return minEvictableIdleTimeMillis;
+        }
+
+        public void setMinEvictableIdleTimeMillis(Map<Integer, String> minEvictableIdleTimeMillis)
+        {
+            this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+        }
+
+        public Map<Integer, String> getWarmUpConnections()
+        {
+            return warmUpConnections;
+        }
+
+        public void setWarmUpConnections(Map<Integer, String> warmUpConnections)
+        {
+            this.warmUpConnections = warmUpConnections;
+        }
+
         public Map<Integer, String> getDisplayName()
         {
             return displayName;
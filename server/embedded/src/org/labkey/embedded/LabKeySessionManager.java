@@ -0,0 +1,134 @@
+package org.labkey.embedded;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.session.PersistentManagerBase;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persists the LabKey webapp's sessions across restarts in a {@link CompressedSessionStore}. Compared to Tomcat's
+ * StandardManager, which serializes every session into a single file on one thread and reads them all back before the
+ * webapp starts, this writes sessions in parallel at shutdown, skips ones that have expired or hold no attributes, and
+ * reads each one back only when a request first asks for it.
+ */
+class LabKeySessionManager extends PersistentManagerBase
+{
+    private static final Log LOG = LogFactory.getLog(LabKeySessionManager.class);
+
+    static final String DIRECTORY_NAME = "labkey-sessions";
+
+    LabKeySessionManager(File directory)
+    {
+        setStore(new CompressedSessionStore(directory));
+        setSaveOnRestart(true);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "LabKeySessionManager";
+    }
+
+    @Override
+    protected Session swapIn(String id) throws IOException
+    {
+        Session session = super.swapIn(id);
+        if (session != null)
+        {
+            // The in-memory copy is now the real one, and it gets saved again at shutdown
+            removeSession(id);
+        }
+        return session;
+    }
+
+    @Override
+    public void unload()
+    {
+        if (getStore() == null)
+            return;
+
+        Session[] sessions = findSessions();
+        if (sessions.length == 0)
+            return;
+
+        long start = System.nanoTime();
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(sessions.length, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "session-persistence-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            List<Callable<Void>> tasks = new ArrayList<>(sessions.length);
+            for (Session session : sessions)
+            {
+                tasks.add(() -> {
+                    if (save(session))
+                        saved.incrementAndGet();
+                    return null;
+                });
+            }
+            executor.invokeAll(tasks);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        LOG.info("Saved " + saved.get() + " of " + sessions.length + " session(s) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, skipping any that were expired or empty");
+    }
+
+    /** @return whether the session was written to the store */
+    private boolean save(Session session)
+    {
+        // Session listeners may run as part of passivating or expiring the session, so use the webapp's class loader
+        ClassLoader oldThreadContextCL = getContext().bind(false, null);
+        try
+        {
+            // Checking validity expires the session if it has timed out
+            if (!session.isValid() || !hasAttributes(session))
+                return false;
+            swapOut(session);
+            return true;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOG.warn("Failed to save session " + session.getIdInternal(), e);
+            return false;
+        }
+        finally
+        {
+            getContext().unbind(false, oldThreadContextCL);
+        }
+    }
+
+    private static boolean hasAttributes(Session session)
+    {
+        try
+        {
+            Enumeration<String> names = session.getSession().getAttributeNames();
+            return names.hasMoreElements();
+        }
+        catch (IllegalStateException e)
+        {
+            // Invalidated since we checked
+            return false;
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package org.labkey.embedded;
 
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterRegistration;
 import org.apache.catalina.Host;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.loader.WebappLoader;
 import org.apache.catalina.startup.Tomcat;
-import org.apache.catalina.valves.JsonAccessLogValve;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.UpgradeProtocol;
 import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.descriptor.web.ContextResource;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 import org.labkey.bootstrap.ConfigException;
+import org.labkey.bootstrap.LabKeyBootstrapClassLoader;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.server.WebServerException;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
 
 import javax.sql.DataSource;
 import java.io.File;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Objects;
 
@@ -34,26 +44,93 @@ public LabKeyTomcatServletWebServerFactory(LabKeyServer server)
     {
         _server = server;
 
-        addConnectorCustomizers(connector -> {
-            LabKeyServer.TomcatProperties props = _server.tomcatProperties();
+        addConnectorCustomizers(this::customizeLabKeyConnector);
+    }
+
+    private void customizeLabKeyConnector(Connector connector)
+    {
+        LabKeyServer.TomcatProperties props = _server.tomcatProperties();
+
+        if (props.getUseBodyEncodingForURI() != null)
+        {
+            connector.setUseBodyEncodingForURI(props.getUseBodyEncodingForURI());
+        }
 
-            if (props.getUseBodyEncodingForURI() != null)
+        if (connector.getProtocolHandler() instanceof AbstractHttp11Protocol<?> handler)
+        {
+            if (props.getDisableUploadTimeout() != null)
+            {
+                handler.setDisableUploadTimeout(props.getDisableUploadTimeout());
+            }
+            if (props.getUseSendfile() != null)
             {
-                connector.setUseBodyEncodingForURI(props.getUseBodyEncodingForURI());
+                handler.setUseSendfile(props.getUseSendfile());
             }
+        }
+
+        if (props.getHttp2() != null && props.getHttp2().isEnabled())
+        {
+            configureHttp2(connector, props);
+        }
 
-            if (connector.getProtocolHandler() instanceof AbstractHttp11Protocol<?> handler)
+        if (Boolean.TRUE.equals(props.getUseVirtualThreads()) && connector.getProtocolHandler() instanceof AbstractProtocol<?> handler)
+        {
+            if (JreCompat.isJre21Available())
             {
-                if (props.getDisableUploadTimeout() != null)
-                {
-                    handler.setDisableUploadTimeout(props.getDisableUploadTimeout());
-                }
-                if (props.getUseSendfile() != null)
-                {
-                    handler.setUseSendfile(props.getUseSendfile());
-                }
+                // Requests spend most of their time blocked on JDBC and file I/O, so let them park a cheap virtual
+                // thread instead of holding on to one from a fixed-size pool
+                handler.setExecutor(new VirtualThreadExecutor("tomcat-handler-" + connector.getPort() + "-"));
+                LOG.info("Using virtual threads for requests on port " + connector.getPort());
+            }
+            else
+            {
+                LOG.warn("server.tomcat.useVirtualThreads requires Java 21 or later. Using platform threads for requests on port " + connector.getPort());
             }
-        });
+        }
+    }
+
+    /**
+     * Add HTTP/2 as an upgrade protocol: h2 via ALPN on TLS connectors and h2c on plain ones. Reuses the Http2Protocol
+     * that Spring Boot adds when server.http2.enabled is set, so that our limits apply to it too.
+     */
+    private void configureHttp2(Connector connector, LabKeyServer.TomcatProperties props)
+    {
+        LabKeyServer.Http2Properties http2Props = props.getHttp2();
+
+        Http2Protocol http2 = null;
+        for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols())
+        {
+            if (upgradeProtocol instanceof Http2Protocol existing)
+            {
+                http2 = existing;
+            }
+        }
+        if (http2 == null)
+        {
+            http2 = new Http2Protocol();
+            connector.addUpgradeProtocol(http2);
+        }
+
+        if (http2Props.getMaxConcurrentStreams() != null)
+        {
+            http2.setMaxConcurrentStreams(http2Props.getMaxConcurrentStreams());
+        }
+        if (http2Props.getMaxConcurrentStreamExecution() != null)
+        {
+            http2.setMaxConcurrentStreamExecution(http2Props.getMaxConcurrentStreamExecution());
+        }
+        if (http2Props.getInitialWindowSize() != null)
+        {
+            http2.setInitialWindowSize(http2Props.getInitialWindowSize());
+        }
+        if (http2Props.getKeepAliveTimeout() != null)
+        {
+            http2.setKeepAliveTimeout(http2Props.getKeepAliveTimeout());
+        }
+        if (props.getUseSendfile() != null)
+        {
+            http2.setUseSendfile(props.getUseSendfile());
+        }
     }
 
     @Override
@@ -71,6 +148,13 @@ protected void prepareContext(Host host, ServletContextInitializer[] initializer
     @Override
     protected TomcatWebServer getTomcatWebServer(Tomcat tomcat)
     {
+        // Spring Boot only runs connector customizers against the primary connector, so apply ours to any others,
+        // such as the one for context.httpPort
+        for (Connector connector : getAdditionalTomcatConnectors())
+        {
+            customizeLabKeyConnector(connector);
+        }
+
         LabKeyServer.ManagementServerProperties props = _server.managementServerSource();
 
         // Don't deploy LK webapp on the separate instance running on the management port
@@ -120,6 +204,23 @@ protected TomcatWebServer getTomcatWebServer(Tomcat tomcat)
                 // Propagate standard Spring Boot properties such as the session timeout
                 configureContext(context, new ServletContextInitializer[0]);
 
+                if (Boolean.TRUE.equals(_server.tomcatProperties().getCompressedSessionStore()))
+                {
+                    // Replaces the StandardManager that configureContext() set up to persist sessions to a single file
+                    context.setManager(new LabKeySessionManager(new File(getValidSessionStoreDir(), LabKeySessionManager.DIRECTORY_NAME)));
+                }
+
+                if (Boolean.TRUE.equals(_server.tomcatProperties().getPrecompressedResources()))
+                {
+                    // Tells the class loader to write the gzip'd copies as it deploys the modules
+                    context.addParameter(LabKeyBootstrapClassLoader.PRECOMPRESS_WEB_RESOURCES_PARAMETER, "true");
+                    // Added once web.xml has been processed, so it's mapped after the webapp's own filters
+                    context.addServletContainerInitializer((classes, servletContext) -> {
+                        FilterRegistration.Dynamic registration = servletContext.addFilter("PrecompressedResourceFilter", new PrecompressedResourceFilter(webAppLocation));
+                        registration.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/*");
+                    }, null);
+                }
+
                 LabKeyServer.CSPFilterProperties cspFilterProperties = _server.cspSource();
 
                 if (cspFilterProperties.getEnforce() != null)
@@ -225,6 +326,12 @@ protected TomcatWebServer getTomcatWebServer(Tomcat tomcat)
                 configureJsonAccessLogging(tomcat, logConfig);
             }
 
+            if (Boolean.TRUE.equals(_server.tomcatProperties().getRecordRequestLatency()))
+            {
+                // Tomcat reports each completed request to the AccessLog valves in the engine's pipeline
+                tomcat.getEngine().getPipeline().addValve(new RequestLatencyValve(_server.requestLatencyStatistics()));
+            }
+
             Map<String, String> additionalWebapps = contextProperties.getAdditionalWebapps();
             if (additionalWebapps != null)
             {
@@ -249,7 +356,16 @@ protected TomcatWebServer getTomcatWebServer(Tomcat tomcat)
             }
         }
 
-        return super.getTomcatWebServer(tomcat);
+        return new TomcatWebServer(tomcat, getPort() >= 0, getShutdown())
+        {
+            @Override
+            public void start() throws WebServerException
+            {
+                // Hold off on accepting requests until the connection pools are warmed up, if any asked to be
+                DataSourceWarmUp.awaitWarmUp(tomcat);
+                super.start();
+            }
+        };
     }
 
     private void addContextProperty(StandardContext context, String value, String name)
@@ -263,9 +379,10 @@ private void addContextProperty(StandardContext context, String value, String na
     // Issue 48565: allow for JSON-formatted access logs in embedded tomcat
     private void configureJsonAccessLogging(Tomcat tomcat, LabKeyServer.JsonAccessLog logConfig)
     {
-        var v = new JsonAccessLogValve();
+        // Write from a background thread so request threads don't block on stdout
+        var v = new AsyncJsonAccessLogValve();
 
-        // Configure for stdout, our only current use case
+        // Configure for stdout, our only current use case. The writer flushes after each batch of records.
         v.setPrefix("stdout");
         v.setDirectory("/dev");
         v.setBuffered(false);
@@ -277,6 +394,8 @@ private void configureJsonAccessLogging(Tomcat tomcat, LabKeyServer.JsonAccessLo
         v.setPattern(logConfig.getPattern());
         v.setConditionIf(logConfig.getConditionIf());
         v.setConditionUnless(logConfig.getConditionUnless());
+        v.setQueueCapacity(logConfig.getQueueCapacity());
+        v.setOverflowPolicy(logConfig.getOverflowPolicy());
 
         tomcat.getEngine().getPipeline().addValve(v);
     }
@@ -313,7 +432,20 @@ private void addDataSourceResources(LabKeyServer.ContextProperties props, Standa
             dataSourceResource.setProperty("maxIdle", getPropValue(props.getMaxIdle(), i, LabKeyServer.MAX_IDLE_DEFAULT, "maxIdle"));
             dataSourceResource.setProperty("maxWaitMillis", getPropValue(props.getMaxWaitMillis(), i, LabKeyServer.MAX_WAIT_MILLIS_DEFAULT, "maxWaitMillis"));
             dataSourceResource.setProperty("accessToUnderlyingConnectionAllowed", getPropValue(props.getAccessToUnderlyingConnectionAllowed(), i, LabKeyServer.ACCESS_TO_CONNECTION_ALLOWED_DEFAULT, "accessToUnderlyingConnectionAllowed"));
-            dataSourceResource.setProperty("validationQuery", getPropValue(props.getValidationQuery(), i, LabKeyServer.VALIDATION_QUERY_DEFAULT, "validationQuery"));
+            ValidationStrategy validationStrategy = ValidationStrategy.get(dataSourceResource.getName(), getPropValue(props.getValidationStrategy(), i, null, "validationStrategy"));
+            dataSourceResource.setProperty("validationQuery", getPropValue(props.getValidationQuery(), i, validationStrategy.getValidationQuery(), "validationQuery"));
+            dataSourceResource.setProperty("poolPreparedStatements", getPropValue(props.getPoolPreparedStatements(), i, LabKeyServer.POOL_PREPARED_STATEMENTS_DEFAULT, "poolPreparedStatements"));
+            dataSourceResource.setProperty("maxOpenPreparedStatements", getPropValue(props.getMaxOpenPreparedStatements(), i, LabKeyServer.MAX_OPEN_PREPARED_STATEMENTS_DEFAULT, "maxOpenPreparedStatements"));
+            dataSourceResource.setProperty("minIdle", getPropValue(props.getMinIdle(), i, LabKeyServer.MIN_IDLE_DEFAULT, "minIdle"));
+            dataSourceResource.setProperty("timeBetweenEvictionRunsMillis", getPropValue(props.getTimeBetweenEvictionRunsMillis(), i, LabKeyServer.TIME_BETWEEN_EVICTION_RUNS_MILLIS_DEFAULT, "timeBetweenEvictionRunsMillis"));
+            dataSourceResource.setProperty("minEvictableIdleTimeMillis", getPropValue(props.getMinEvictableIdleTimeMillis(), i, LabKeyServer.MIN_EVICTABLE_IDLE_TIME_MILLIS_DEFAULT, "minEvictableIdleTimeMillis"));
+            // Fill in the rest of the validation strategy's settings without overriding anything set above
+            validationStrategy.getProperties().forEach((key, value) -> {
+                if (dataSourceResource.getProperty(key) == null)
+                {
+                    dataSourceResource.setProperty(key, value);
+                }
+            });
 
             // These two properties are handled differently, as separate parameters
             String displayName = getPropValue(props.getDisplayName(), i, null, "displayName");
@@ -321,6 +453,8 @@ private void addDataSourceResources(LabKeyServer.ContextProperties props, Standa
             {
                 context.addParameter(dataSourceResource.getName() + ":DisplayName", displayName);
             }
+            dataSourceResource.setProperty("jmxName", DataSourceStatistics.getJmxName(dataSourceResource.getName(), displayName));
+            dataSourceResource.setProperty("registerConnectionMBean", LabKeyServer.REGISTER_CONNECTION_MBEAN_DEFAULT);
             String logQueries = getPropValue(props.getLogQueries(), i, null, "logQueries");
             if (logQueries != null)
             {
@@ -328,6 +462,8 @@ private void addDataSourceResources(LabKeyServer.ContextProperties props, Standa
             }
 
             context.getNamingResources().addResource(dataSourceResource);
+
+            DataSourceWarmUp.register(context, dataSourceResource.getName(), getPropValue(props.getWarmUpConnections(), i, LabKeyServer.WARM_UP_CONNECTIONS_DEFAULT, "warmUpConnections"), (String) dataSourceResource.getProperty("maxWaitMillis"));
         }
     }
 
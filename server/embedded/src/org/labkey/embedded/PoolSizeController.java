@@ -0,0 +1,344 @@
+package org.labkey.embedded;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.core.StandardContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.dbcp.dbcp2.BasicDataSource;
+import org.apache.tomcat.dbcp.pool2.impl.GenericObjectPool;
+import org.labkey.bootstrap.ConfigException;
+import org.springframework.lang.Nullable;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.labkey.embedded.LabKeyServer.ADAPTIVE_MAX_TOTAL_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.ADAPTIVE_MIN_TOTAL_DEFAULT;
+
+/**
+ * Grows and shrinks the maxTotal of JDBC connection pools that have "adaptivePoolSizing" enabled, within their
+ * adaptiveMinTotal and adaptiveMaxTotal bounds. Every few seconds it checks each pool: if borrowers are waiting for
+ * connections, the pool grows, unless query latency (measured by query timing, if it's enabled for the data source)
+ * has climbed well above its usual level, in which case the database rather than the pool is the bottleneck and more
+ * connections would only add to its load. Once the pool has been mostly unused for a couple of minutes, it shrinks.
+ * maxIdle is scaled along with maxTotal so that quiet periods don't hold idle connections open. Each change is logged,
+ * and the controller's state is reported alongside the pool's in {@link DataSourceStatistics}.
+ */
+class PoolSizeController implements LifecycleListener
+{
+    private static final Log LOG = LogFactory.getLog(PoolSizeController.class);
+
+    private static final long INTERVAL_SECONDS = 15;
+    // Mean borrow wait, over the borrows in an interval, that means the pool is too small
+    private static final long GROW_WAIT_MILLIS = 50;
+    // Don't grow while query latency is this many times its baseline
+    private static final double LATENCY_BACKOFF_FACTOR = 2;
+    // Shrink after this many intervals with at most half the pool in use
+    private static final int QUIET_INTERVALS_TO_SHRINK = 8;
+    // Weight given to each quiet interval's query latency in the baseline
+    private static final double BASELINE_WEIGHT = 0.1;
+
+    // Every controlled pool, by data source name, for reporting
+    private static final Map<String, PoolState> POOLS = new ConcurrentHashMap<>();
+
+    private final StandardContext _context;
+    private final Map<String, PoolState> _pools = new LinkedHashMap<>();
+
+    private ScheduledExecutorService _executor;
+
+    private PoolSizeController(StandardContext context)
+    {
+        _context = context;
+    }
+
+    /** Control the named data source's pool size when the context starts, if its properties ask for it */
+    static void register(StandardContext context, String name, Map<String, String> props) throws ConfigException
+    {
+        boolean enabled = Boolean.parseBoolean(props.remove("adaptivePoolSizing"));
+        String minTotalValue = props.remove("adaptiveMinTotal");
+        String maxTotalValue = props.remove("adaptiveMaxTotal");
+        if (!enabled)
+            return;
+
+        int minTotal;
+        int maxTotal;
+        try
+        {
+            minTotal = Integer.parseInt((minTotalValue == null ? ADAPTIVE_MIN_TOTAL_DEFAULT : minTotalValue).trim());
+            maxTotal = Integer.parseInt((maxTotalValue == null ? ADAPTIVE_MAX_TOTAL_DEFAULT : maxTotalValue).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigException("Resource configuration error: 'adaptiveMinTotal' and 'adaptiveMaxTotal' must be numbers for resource '%s'".formatted(name));
+        }
+        if (minTotal < 1 || maxTotal < minTotal)
+        {
+            throw new ConfigException("Resource configuration error: 'adaptiveMinTotal' must be at least 1 and no more than 'adaptiveMaxTotal' for resource '%s'".formatted(name));
+        }
+
+        PoolSizeController controller = null;
+        for (LifecycleListener listener : context.findLifecycleListeners())
+        {
+            if (listener instanceof PoolSizeController existing)
+                controller = existing;
+        }
+        if (controller == null)
+        {
+            controller = new PoolSizeController(context);
+            context.addLifecycleListener(controller);
+        }
+        controller._pools.put(name, new PoolState(name, minTotal, maxTotal));
+    }
+
+    /** @return the controller's bounds, recent decisions, and counts for the named data source, or null if it isn't controlled */
+    @Nullable
+    static Map<String, Object> getStatus(String name)
+    {
+        PoolState state = POOLS.get(name);
+        return state == null ? null : state.getStatus();
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event)
+    {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) && _executor == null)
+        {
+            _executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "datasource-pool-sizing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _pools.forEach(POOLS::put);
+            _executor.scheduleWithFixedDelay(this::adjust, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+        else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType()) && _executor != null)
+        {
+            _executor.shutdownNow();
+            try
+            {
+                // Let an adjustment that's in progress finish before its state is reset
+                _executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            _executor = null;
+            _pools.keySet().forEach(POOLS::remove);
+            // The context's naming environment, and the pools in it, are rebuilt when it starts again
+            _pools.values().forEach(PoolState::reset);
+        }
+    }
+
+    private void adjust()
+    {
+        Context envContext = _context.getNamingContextListener() == null ? null : _context.getNamingContextListener().getEnvContext();
+        for (PoolState state : _pools.values())
+        {
+            try
+            {
+                if (state._dataSource == null && envContext != null)
+                    state._dataSource = (BasicDataSource) envContext.lookup(state._name);
+                if (state._dataSource != null)
+                    state.adjust();
+            }
+            catch (NamingException | ClassCastException e)
+            {
+                LOG.warn("Unable to find connection pool for " + state._name + ", not adjusting its size", e);
+                state._dataSource = null;
+            }
+            catch (RuntimeException e)
+            {
+                // Keep the schedule running for the other pools
+                LOG.warn("Failed to adjust connection pool size for " + state._name, e);
+            }
+        }
+    }
+
+    /** One pool's bounds and history. Only the controller's thread changes it, apart from {@link #reset()} once that thread has stopped. */
+    private static class PoolState
+    {
+        private final String _name;
+        private final int _minTotal;
+        private final int _maxTotal;
+
+        private BasicDataSource _dataSource;
+        private int _configuredMaxTotal;
+        private int _configuredMaxIdle;
+        private long _lastBorrowed;
+        private long _lastSampledCount;
+        private long _lastSampledMicros;
+        private double _baselineLatencyMicros = Double.NaN;
+        private int _quietIntervals;
+
+        private volatile String _lastDecision;
+        private volatile Instant _lastDecisionTime;
+        private volatile long _growCount;
+        private volatile long _shrinkCount;
+
+        private PoolState(String name, int minTotal, int maxTotal)
+        {
+            _name = name;
+            _minTotal = minTotal;
+            _maxTotal = maxTotal;
+        }
+
+        /** Forget the pool and everything learned about it, back to how it was registered */
+        private void reset()
+        {
+            _dataSource = null;
+            _configuredMaxTotal = 0;
+            _configuredMaxIdle = 0;
+            _lastBorrowed = 0;
+            _lastSampledCount = 0;
+            _lastSampledMicros = 0;
+            _baselineLatencyMicros = Double.NaN;
+            _quietIntervals = 0;
+            _lastDecision = null;
+            _lastDecisionTime = null;
+            _growCount = 0;
+            _shrinkCount = 0;
+        }
+
+        private void adjust()
+        {
+            // DBCP creates the pool on first use
+            GenericObjectPool<?> pool = _dataSource.getConnectionPool();
+            if (pool == null)
+                return;
+
+            int maxTotal = _dataSource.getMaxTotal();
+            if (_configuredMaxTotal == 0)
+            {
+                _configuredMaxTotal = Math.max(1, maxTotal);
+                _configuredMaxIdle = _dataSource.getMaxIdle();
+                _lastBorrowed = pool.getBorrowedCount();
+                int bounded = Math.max(_minTotal, Math.min(_maxTotal, maxTotal));
+                if (bounded != maxTotal)
+                    resize(maxTotal, bounded, "configured maxTotal is outside of adaptiveMinTotal and adaptiveMaxTotal");
+                return;
+            }
+
+            long borrowed = pool.getBorrowedCount();
+            boolean borrowedSinceLast = borrowed != _lastBorrowed;
+            _lastBorrowed = borrowed;
+            int waiters = pool.getNumWaiters();
+            // A moving average over recent borrows, which goes stale when nothing is borrowed
+            long meanWait = borrowedSinceLast ? pool.getMeanBorrowWaitDuration().toMillis() : 0;
+            int active = pool.getNumActive();
+            double latencyMicros = getIntervalLatencyMicros();
+
+            if (waiters > 0 || meanWait >= GROW_WAIT_MILLIS)
+            {
+                _quietIntervals = 0;
+                String pressure = "%d waiting, mean borrow wait %dms".formatted(waiters, meanWait);
+                if (maxTotal >= _maxTotal)
+                {
+                    hold("at adaptiveMaxTotal of " + _maxTotal + " with " + pressure);
+                }
+                else if (!Double.isNaN(latencyMicros) && !Double.isNaN(_baselineLatencyMicros) && latencyMicros > _baselineLatencyMicros * LATENCY_BACKOFF_FACTOR)
+                {
+                    hold("%s, but mean query time %.1fms is well above its usual %.1fms".formatted(pressure, latencyMicros / 1000, _baselineLatencyMicros / 1000));
+                }
+                else
+                {
+                    _growCount++;
+                    int newMaxTotal = Math.min(_maxTotal, maxTotal + Math.max(1, maxTotal / 4));
+                    resize(maxTotal, newMaxTotal, pressure);
+                    // Raising the limit doesn't wake borrowers that are already waiting, but a new idle connection does
+                    for (int i = 0; i < Math.min(waiters, newMaxTotal - maxTotal); i++)
+                    {
+                        try
+                        {
+                            pool.addObject();
+                        }
+                        catch (Exception e)
+                        {
+                            LOG.warn("Failed to open a connection for " + _name + ": " + e.getMessage());
+                            break;
+                        }
+                    }
+                }
+                return;
+            }
+
+            if (!Double.isNaN(latencyMicros))
+            {
+                _baselineLatencyMicros = Double.isNaN(_baselineLatencyMicros) ? latencyMicros : _baselineLatencyMicros * (1 - BASELINE_WEIGHT) + latencyMicros * BASELINE_WEIGHT;
+            }
+            _quietIntervals = active <= maxTotal / 2 ? _quietIntervals + 1 : 0;
+            if (_quietIntervals >= QUIET_INTERVALS_TO_SHRINK && maxTotal > _minTotal)
+            {
+                _quietIntervals = 0;
+                int target = Math.max(_minTotal, Math.max(active * 2, maxTotal - Math.max(1, maxTotal / 4)));
+                if (target < maxTotal)
+                {
+                    _shrinkCount++;
+                    resize(maxTotal, target, "at most %d of %d connections in use for %d seconds".formatted(active, maxTotal, QUIET_INTERVALS_TO_SHRINK * INTERVAL_SECONDS));
+                }
+            }
+        }
+
+        /** @return the mean time of the statements query timing sampled since the last check, or NaN if there were none */
+        private double getIntervalLatencyMicros()
+        {
+            QueryTimingStatistics.DataSourceTiming timing = QueryTimingStatistics.get().getDataSource(_name);
+            if (timing == null)
+                return Double.NaN;
+
+            long count = timing.getSampledCount();
+            long micros = timing.getSampledMicros();
+            long countDelta = count - _lastSampledCount;
+            long microsDelta = micros - _lastSampledMicros;
+            _lastSampledCount = count;
+            _lastSampledMicros = micros;
+            // Nothing sampled, or the statistics were reset
+            return countDelta <= 0 || microsDelta < 0 ? Double.NaN : (double) microsDelta / countDelta;
+        }
+
+        private void resize(int oldMaxTotal, int newMaxTotal, String reason)
+        {
+            // Keep maxIdle in the same proportion to maxTotal as configured, but never below minIdle
+            int maxIdle = (int) Math.round((double) _configuredMaxIdle * newMaxTotal / _configuredMaxTotal);
+            maxIdle = Math.min(newMaxTotal, Math.max(_dataSource.getMinIdle(), maxIdle));
+            _dataSource.setMaxTotal(newMaxTotal);
+            _dataSource.setMaxIdle(maxIdle);
+
+            String decision = "Resized from %d to %d connections (maxIdle %d): %s".formatted(oldMaxTotal, newMaxTotal, maxIdle, reason);
+            LOG.info("Connection pool for " + _name + ": " + decision);
+            _lastDecision = decision;
+            _lastDecisionTime = Instant.now();
+        }
+
+        private void hold(String reason)
+        {
+            String decision = "Not growing: " + reason;
+            // Only log when the pool starts being held back, not every interval that it stays that way
+            if (_lastDecision == null || !_lastDecision.startsWith("Not growing"))
+                LOG.warn("Connection pool for " + _name + ": " + decision);
+            _lastDecision = decision;
+            _lastDecisionTime = Instant.now();
+        }
+
+        private Map<String, Object> getStatus()
+        {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("adaptiveMinTotal", _minTotal);
+            status.put("adaptiveMaxTotal", _maxTotal);
+            status.put("growCount", _growCount);
+            status.put("shrinkCount", _shrinkCount);
+            status.put("lastDecision", _lastDecision);
+            status.put("lastDecisionTime", _lastDecisionTime == null ? null : _lastDecisionTime.toString());
+            return status;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.labkey.embedded;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
+import org.labkey.bootstrap.ExplodedModule;
+import org.labkey.bootstrap.ModuleDirectories;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the gzip'd copies of module web resources that are written at deployment time (see
+ * {@link ExplodedModule#precompressWebResources()}) to clients that accept them, so that large JS and CSS files aren't
+ * compressed again on a request thread for every response.
+ *
+ * Registered after the filters declared by the LabKey webapp, so responses still get the headers they add, such as
+ * the Content-Security-Policy and other security headers. Conditional requests are answered with a 304 based on the
+ * same ETag and Last-Modified headers sent with the content.
+ *
+ * Only resources whose path resolves to exactly one file across the webapp and all module web directories are
+ * handled here. Anything ambiguous, missing, stale, or not accepted by the client continues down the filter chain.
+ */
+class PrecompressedResourceFilter extends HttpFilter
+{
+    private static final long serialVersionUID = 1L;
+    private static final Log LOG = LogFactory.getLog(PrecompressedResourceFilter.class);
+    private static final String GZIP = "gzip";
+
+    private final File _webAppDirectory;
+
+    /** Request path (relative to the context path) to the original, uncompressed file */
+    private transient volatile Map<String, File> _resources = Map.of();
+
+    PrecompressedResourceFilter(File webAppDirectory)
+    {
+        _webAppDirectory = webAppDirectory;
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException
+    {
+        super.init(config);
+
+        // The context's loader has extracted and deployed the modules by the time its filters are started
+        Map<String, File> resources = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        for (File modulesDir : new ModuleDirectories(_webAppDirectory).getAllModuleDirectories())
+        {
+            File[] moduleDirs = modulesDir.listFiles(File::isDirectory);
+            if (moduleDirs != null)
+            {
+                for (File moduleDir : moduleDirs)
+                {
+                    addResources(new File(moduleDir, "web"), "", resources, ambiguous);
+                }
+            }
+        }
+        ambiguous.forEach(resources::remove);
+        // The webapp's own files take precedence over module resources
+        resources.keySet().removeIf(path -> new File(_webAppDirectory, path).exists());
+
+        _resources = Map.copyOf(resources);
+        LOG.info("Serving precompressed copies of " + _resources.size() + " web resource(s)");
+    }
+
+    private void addResources(File dir, String path, Map<String, File> resources, Set<String> ambiguous)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files)
+        {
+            String filePath = path + "/" + file.getName();
+            if (file.isDirectory())
+            {
+                if (!file.getName().equals("WEB-INF"))
+                    addResources(file, filePath, resources, ambiguous);
+            }
+            else if (ExplodedModule.isCompressible(file.getName()) && new File(dir, file.getName() + ExplodedModule.PRECOMPRESSED_EXTENSION).isFile())
+            {
+                if (resources.putIfAbsent(filePath, file) != null)
+                    ambiguous.add(filePath);
+            }
+        }
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        File source = null;
+        String method = request.getMethod();
+        if ("GET".equals(method) || "HEAD".equals(method))
+        {
+            // Decoded and normalized by the container
+            String path = request.getServletPath() + (request.getPathInfo() == null ? "" : request.getPathInfo());
+            source = _resources.get(path);
+        }
+
+        File compressed = source == null ? null : new File(source.getPath() + ExplodedModule.PRECOMPRESSED_EXTENSION);
+        if (compressed == null || !acceptsGzip(request) || !compressed.isFile() || compressed.lastModified() != source.lastModified())
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long lastModified = source.lastModified();
+        String etag = "W/\"" + source.length() + "-" + lastModified + "\"";
+        // Caches need to know that the response differs based on the request's Accept-Encoding
+        response.addHeader("Vary", "Accept-Encoding");
+        response.setHeader("Last-Modified", FastHttpDateFormat.formatDate(lastModified));
+        response.setHeader("ETag", etag);
+
+        if (isNotModified(request, etag, lastModified))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String mimeType = request.getServletContext().getMimeType(source.getName());
+        if (mimeType != null)
+            response.setContentType(mimeType);
+        // Setting Content-Encoding also keeps the connector from compressing the response again
+        response.setHeader("Content-Encoding", GZIP);
+        response.setContentLengthLong(compressed.length());
+
+        if ("GET".equals(method))
+            Files.copy(compressed.toPath(), response.getOutputStream());
+    }
+
+    /** If-None-Match takes precedence over If-Modified-Since when a request has both, per RFC 9110 */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            // GET and HEAD use weak comparison, so ignore any W/ prefix on either side
+            String opaqueTag = etag.substring(2);
+            for (String tag : ifNoneMatch.split(","))
+            {
+                tag = tag.trim();
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaqueTag))
+                    return true;
+            }
+            return false;
+        }
+
+        long ifModifiedSince;
+        try
+        {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Unparseable dates are ignored
+            return false;
+        }
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request)
+    {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null)
+            return false;
+
+        try
+        {
+            List<AcceptEncoding> encodings = AcceptEncoding.parse(new StringReader(header));
+            if (encodings == null)
+                return false;
+
+            for (AcceptEncoding encoding : encodings)
+            {
+                if ((GZIP.equalsIgnoreCase(encoding.getEncoding()) || "*".equals(encoding.getEncoding())) && encoding.getQuality() > 0)
+                    return true;
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Unable to parse Accept-Encoding header: " + header, e);
+        }
+        return false;
+    }
+}
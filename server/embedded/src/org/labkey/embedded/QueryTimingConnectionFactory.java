@@ -0,0 +1,218 @@
+package org.labkey.embedded;
+
+import org.apache.tomcat.dbcp.dbcp2.DriverConnectionFactory;
+import org.labkey.bootstrap.ConfigException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.labkey.embedded.LabKeyServer.QUERY_TIMING_SAMPLE_RATE_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT;
+
+/**
+ * Connection factory for DBCP pools that have query timing enabled. DBCP has no statement interceptors, so this wraps
+ * each physical connection as it's created, and the statements it hands out, in dynamic proxies that time their execute
+ * methods and record the results in {@link QueryTimingStatistics}. Pools without query timing use DBCP's own factory and
+ * pay nothing, which is why timing is only turned on by an explicit setting.
+ *
+ * Code that uses a timed data source must reach driver-specific objects with unwrap(), not casts or instanceof checks:
+ * DBCP's getInnermostDelegate() returns the proxy rather than the driver's connection, and ResultSet.getStatement()
+ * returns the driver's statement rather than the proxy that created it.
+ */
+public class QueryTimingConnectionFactory extends DriverConnectionFactory
+{
+    /** Connection property that tells the factory which data source it belongs to. Never passed on to the driver. */
+    static final String DATA_SOURCE_PROPERTY = "labkey.queryTimingDataSource";
+
+    private final QueryTimingStatistics.DataSourceTiming _timing;
+
+    /** Called by DBCP, via the data source's "connectionFactoryClassName" property */
+    public QueryTimingConnectionFactory(Driver driver, String connectString, Properties properties)
+    {
+        super(driver, connectString, withoutDataSourceProperty(properties));
+        _timing = QueryTimingStatistics.get().getDataSource(properties.getProperty(DATA_SOURCE_PROPERTY));
+    }
+
+    private static Properties withoutDataSourceProperty(Properties properties)
+    {
+        Properties result = new Properties();
+        result.putAll(properties);
+        result.remove(DATA_SOURCE_PROPERTY);
+        return result;
+    }
+
+    /**
+     * Enable query timing for a JDBC data source if it explicitly asks for sampling (queryTimingSampleRate) or a slow
+     * query threshold (slowQueryThresholdMillis). Removes those settings from the resource's properties, which DBCP
+     * doesn't understand.
+     */
+    static void register(String name, Map<String, String> props) throws ConfigException
+    {
+        String sampleRateValue = props.remove("queryTimingSampleRate");
+        String slowThresholdValue = props.remove("slowQueryThresholdMillis");
+        if (sampleRateValue == null)
+            sampleRateValue = QUERY_TIMING_SAMPLE_RATE_DEFAULT;
+        if (slowThresholdValue == null)
+            slowThresholdValue = SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT;
+
+        double sampleRate;
+        long slowThresholdMillis;
+        try
+        {
+            sampleRate = Double.parseDouble(sampleRateValue.trim());
+            slowThresholdMillis = Long.parseLong(slowThresholdValue.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigException("Resource configuration error: 'queryTimingSampleRate' and 'slowQueryThresholdMillis' must be numbers for resource '%s'".formatted(name));
+        }
+        if (sampleRate < 0 || sampleRate > 1)
+        {
+            throw new ConfigException("Resource configuration error: 'queryTimingSampleRate' must be between 0 and 1 for resource '%s'".formatted(name));
+        }
+        if (sampleRate == 0 && slowThresholdMillis <= 0)
+            return;
+
+        QueryTimingStatistics.get().register(name, sampleRate, Math.max(0, slowThresholdMillis));
+        props.putIfAbsent("connectionFactoryClassName", QueryTimingConnectionFactory.class.getName());
+        String connectionProperties = props.get("connectionProperties");
+        String dataSourceProperty = DATA_SOURCE_PROPERTY + "=" + name;
+        props.put("connectionProperties", connectionProperties == null || connectionProperties.isBlank() ? dataSourceProperty : connectionProperties + ";" + dataSourceProperty);
+    }
+
+    @Override
+    public Connection createConnection() throws SQLException
+    {
+        Connection connection = super.createConnection();
+        if (_timing == null || connection == null)
+            return connection;
+        return newProxy(Connection.class, new ConnectionHandler(connection, _timing));
+    }
+
+    private static <T> T newProxy(Class<T> iface, InvocationHandler handler)
+    {
+        return iface.cast(Proxy.newProxyInstance(QueryTimingConnectionFactory.class.getClassLoader(), new Class<?>[]{iface}, handler));
+    }
+
+    /** Shared handling of the JDBC Wrapper methods, so that unwrap() still reaches the driver's own objects */
+    private abstract static class WrapperHandler implements InvocationHandler
+    {
+        protected final Object _target;
+
+        protected WrapperHandler(Object target)
+        {
+            _target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String methodName = method.getName();
+            if ("unwrap".equals(methodName) && args != null && args.length == 1 && ((Class<?>) args[0]).isInstance(proxy))
+                return proxy;
+            if ("isWrapperFor".equals(methodName) && args != null && args.length == 1 && ((Class<?>) args[0]).isInstance(proxy))
+                return true;
+            if ("equals".equals(methodName) && args != null && args.length == 1)
+                return proxy == args[0];
+            if ("hashCode".equals(methodName) && args == null)
+                return System.identityHashCode(proxy);
+
+            try
+            {
+                return handle(proxy, method, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+
+        protected abstract Object handle(Object proxy, Method method, Object[] args) throws Throwable;
+    }
+
+    private static class ConnectionHandler extends WrapperHandler
+    {
+        private final QueryTimingStatistics.DataSourceTiming _timing;
+
+        private ConnectionHandler(Connection target, QueryTimingStatistics.DataSourceTiming timing)
+        {
+            super(target);
+            _timing = timing;
+        }
+
+        @Override
+        protected Object handle(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            Object result = method.invoke(_target, args);
+            String sql = args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            return switch (method.getName())
+            {
+                case "createStatement" -> newProxy(Statement.class, new StatementHandler(result, (Connection) proxy, null, _timing));
+                case "prepareStatement" -> newProxy(PreparedStatement.class, new StatementHandler(result, (Connection) proxy, sql, _timing));
+                case "prepareCall" -> newProxy(CallableStatement.class, new StatementHandler(result, (Connection) proxy, sql, _timing));
+                default -> result;
+            };
+        }
+    }
+
+    private static class StatementHandler extends WrapperHandler implements QueryTimingStatistics.FingerprintSource
+    {
+        private final Connection _connection;
+        private final QueryTimingStatistics.DataSourceTiming _timing;
+        // For prepared statements, the SQL never changes, so the fingerprint is computed once and cached
+        private final String _preparedSql;
+        private String _fingerprint;
+        private String _executedSql;
+
+        private StatementHandler(Object target, Connection connection, String preparedSql, QueryTimingStatistics.DataSourceTiming timing)
+        {
+            super(target);
+            _connection = connection;
+            _preparedSql = preparedSql;
+            _timing = timing;
+        }
+
+        @Override
+        protected Object handle(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String methodName = method.getName();
+            if ("getConnection".equals(methodName))
+                return _connection;
+            if (!methodName.startsWith("execute"))
+                return method.invoke(_target, args);
+
+            // Plain statements pass their SQL to each execute call, except for batches
+            if (_preparedSql == null)
+                _executedSql = args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            long start = System.nanoTime();
+            try
+            {
+                return method.invoke(_target, args);
+            }
+            finally
+            {
+                _timing.record(this, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public String getFingerprint()
+        {
+            if (_preparedSql == null)
+                return _executedSql == null ? "(batch)" : QueryTimingStatistics.fingerprint(_executedSql);
+            if (_fingerprint == null)
+                _fingerprint = QueryTimingStatistics.fingerprint(_preparedSql);
+            return _fingerprint;
+        }
+    }
+}
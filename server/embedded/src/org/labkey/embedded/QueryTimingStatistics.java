@@ -0,0 +1,302 @@
+package org.labkey.embedded;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Statement execution times for JDBC data sources that have query timing enabled, grouped by SQL fingerprint (the
+ * statement with its literals replaced by "?"). Only a sample of executions is recorded, plus any that exceed the data
+ * source's slow query threshold, so the overhead stays low even on busy servers. Available from the "querytiming"
+ * actuator endpoint on the management port.
+ */
+@Endpoint(id = "querytiming")
+public class QueryTimingStatistics
+{
+    private static final Log LOG = LogFactory.getLog(QueryTimingStatistics.class);
+
+    // Data sources are configured before Spring creates its beans, so they share a single instance
+    private static final QueryTimingStatistics INSTANCE = new QueryTimingStatistics();
+
+    /** Bucket for everything past this many distinct fingerprints per data source */
+    static final int MAX_FINGERPRINTS = 500;
+    static final String OTHER_KEY = "(other)";
+    static final int MAX_FINGERPRINT_LENGTH = 2000;
+    private static final int DEFAULT_TOP = 20;
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\?(?: ?, ?\\?)+\\)");
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99"};
+
+    private final Map<String, DataSourceTiming> _dataSources = new ConcurrentHashMap<>();
+
+    static QueryTimingStatistics get()
+    {
+        return INSTANCE;
+    }
+
+    private QueryTimingStatistics()
+    {
+    }
+
+    /** Start (or restart) collecting timings for the named data source */
+    void register(String name, double sampleRate, long slowThresholdMillis)
+    {
+        _dataSources.put(name, new DataSourceTiming(name, sampleRate, TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis)));
+    }
+
+    @Nullable
+    DataSourceTiming getDataSource(String name)
+    {
+        return name == null ? null : _dataSources.get(name);
+    }
+
+    /**
+     * @param top how many fingerprints to report for each data source, ordered by total time spent. Defaults to 20.
+     * @return for each data source, its settings, how many statements were executed, sampled, and slow, a histogram of
+     * the sampled execution times, and the fingerprints with the most total sampled time. Times are in milliseconds.
+     */
+    @ReadOperation
+    public Map<String, Map<String, Object>> queries(@Nullable Integer top)
+    {
+        int limit = top == null || top <= 0 ? DEFAULT_TOP : top;
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (DataSourceTiming timing : _dataSources.values())
+        {
+            result.put(timing._name, timing.summarize(limit));
+        }
+        return result;
+    }
+
+    @DeleteOperation
+    public void reset()
+    {
+        _dataSources.values().forEach(DataSourceTiming::reset);
+    }
+
+    /**
+     * Collapse a SQL statement into a fingerprint that's shared by all executions of the same query: string and
+     * numeric literals become "?", runs of whitespace become a single space, and IN lists of any length become
+     * "(?...)". Identifiers, including quoted ones, are left alone.
+     */
+    static String fingerprint(String sql)
+    {
+        StringBuilder result = new StringBuilder(Math.min(sql.length(), MAX_FINGERPRINT_LENGTH));
+        int length = sql.length();
+        int i = 0;
+        while (i < length && result.length() < MAX_FINGERPRINT_LENGTH)
+        {
+            char c = sql.charAt(i);
+            if (c == '\'')
+            {
+                // String literal, where '' is an escaped quote
+                i++;
+                while (i < length && (sql.charAt(i) != '\'' || (i + 1 < length && sql.charAt(i + 1) == '\'')))
+                {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                i++;
+                result.append('?');
+            }
+            else if (c == '"')
+            {
+                int end = sql.indexOf('"', i + 1);
+                end = end == -1 ? length : end + 1;
+                result.append(sql, i, end);
+                i = end;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                while (i < length && Character.isWhitespace(sql.charAt(i)))
+                {
+                    i++;
+                }
+                if (!result.isEmpty())
+                    result.append(' ');
+            }
+            else if (Character.isDigit(c))
+            {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                result.append('?');
+            }
+            else if (Character.isJavaIdentifierPart(c))
+            {
+                // Copy the whole identifier so that digits within names are kept
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(sql.charAt(i)))
+                {
+                    i++;
+                }
+                result.append(sql, start, i);
+            }
+            else
+            {
+                result.append(c);
+                i++;
+            }
+        }
+        if (i < length)
+            result.append("...");
+        else if (!result.isEmpty() && result.charAt(result.length() - 1) == ' ')
+            result.setLength(result.length() - 1);
+
+        return IN_LIST.matcher(result).replaceAll("(?...)");
+    }
+
+    private static Map<String, Object> summarizeHistogram(Histogram histogram)
+    {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000);
+        for (int i = 0; i < PERCENTILES.length; i++)
+        {
+            summary.put(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+        }
+        summary.put("max", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+
+    /** Values are microseconds, to two significant digits, resizing as needed to fit the largest value seen */
+    private static Histogram newHistogram()
+    {
+        return new ConcurrentHistogram(2);
+    }
+
+    /** Timings and settings for one data source */
+    static class DataSourceTiming
+    {
+        private final String _name;
+        private final double _sampleRate;
+        private final long _slowThresholdNanos;
+
+        private final LongAdder _executed = new LongAdder();
+        private final LongAdder _slow = new LongAdder();
+        private final Histogram _all = newHistogram();
+        private final LongAdder _sampledMicros = new LongAdder();
+        private final Map<String, FingerprintTiming> _fingerprints = new ConcurrentHashMap<>();
+
+        private DataSourceTiming(String name, double sampleRate, long slowThresholdNanos)
+        {
+            _name = name;
+            _sampleRate = sampleRate;
+            _slowThresholdNanos = slowThresholdNanos;
+        }
+
+        /**
+         * Record one execution. The fingerprint is only computed if this execution is sampled or slow.
+         * @param statement supplies the fingerprint of the SQL that was executed, computed (and perhaps cached) on demand
+         */
+        void record(FingerprintSource statement, long elapsedNanos)
+        {
+            _executed.increment();
+            boolean slow = _slowThresholdNanos > 0 && elapsedNanos >= _slowThresholdNanos;
+            boolean sampled = _sampleRate >= 1 || (_sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < _sampleRate);
+            if (!slow && !sampled)
+                return;
+
+            String fingerprint = statement.getFingerprint();
+            FingerprintTiming timing = _fingerprints.get(fingerprint);
+            if (timing == null)
+            {
+                if (_fingerprints.size() >= MAX_FINGERPRINTS)
+                    fingerprint = OTHER_KEY;
+                timing = _fingerprints.computeIfAbsent(fingerprint, k -> new FingerprintTiming());
+            }
+
+            if (sampled)
+            {
+                long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+                _all.recordValue(micros);
+                _sampledMicros.add(micros);
+                timing._histogram.recordValue(micros);
+                timing._totalMicros.add(micros);
+            }
+            if (slow)
+            {
+                _slow.increment();
+                timing._slow.increment();
+                LOG.warn("Slow query on " + _name + " took " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms: " + fingerprint);
+            }
+        }
+
+        /** @return how many executions have been sampled since the last reset */
+        long getSampledCount()
+        {
+            return _all.getTotalCount();
+        }
+
+        /** @return the total time, in microseconds, of the executions sampled since the last reset */
+        long getSampledMicros()
+        {
+            return _sampledMicros.sum();
+        }
+
+        private Map<String, Object> summarize(int top)
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("sampleRate", _sampleRate);
+            result.put("slowQueryThresholdMillis", TimeUnit.NANOSECONDS.toMillis(_slowThresholdNanos));
+            result.put("executedCount", _executed.sum());
+            result.put("slowCount", _slow.sum());
+            result.put("sampled", summarizeHistogram(_all.copy()));
+
+            // Order by total sampled time, which is what the database spent the most effort on
+            List<Map.Entry<String, FingerprintTiming>> entries = new ArrayList<>(_fingerprints.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<String, FingerprintTiming> e) -> e.getValue()._totalMicros.sum())
+                    .thenComparingLong(e -> e.getValue()._slow.sum()).reversed());
+            List<Map<String, Object>> queries = new ArrayList<>();
+            for (Map.Entry<String, FingerprintTiming> entry : entries.subList(0, Math.min(top, entries.size())))
+            {
+                Map<String, Object> query = new LinkedHashMap<>();
+                query.put("sql", entry.getKey());
+                query.put("total", entry.getValue()._totalMicros.sum() / 1000.0);
+                query.put("slowCount", entry.getValue()._slow.sum());
+                query.putAll(summarizeHistogram(entry.getValue()._histogram.copy()));
+                queries.add(query);
+            }
+            result.put("topQueries", queries);
+            return result;
+        }
+
+        private void reset()
+        {
+            _executed.reset();
+            _slow.reset();
+            _all.reset();
+            _sampledMicros.reset();
+            _fingerprints.clear();
+        }
+    }
+
+    private static class FingerprintTiming
+    {
+        private final Histogram _histogram = newHistogram();
+        private final LongAdder _totalMicros = new LongAdder();
+        private final LongAdder _slow = new LongAdder();
+    }
+
+    interface FingerprintSource
+    {
+        String getFingerprint();
+    }
+}
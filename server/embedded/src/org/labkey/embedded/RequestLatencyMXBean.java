@@ -0,0 +1,19 @@
+package org.labkey.embedded;
+
+import java.util.Map;
+
+/**
+ * JMX view of the request latency histograms collected by {@link RequestLatencyValve}, registered as
+ * {@value RequestLatencyStatistics#OBJECT_NAME}
+ */
+public interface RequestLatencyMXBean
+{
+    /**
+     * @return for each endpoint and status class (e.g. "project-begin.view 2xx"), the request count plus the mean,
+     * percentile, and max latencies in milliseconds
+     */
+    Map<String, Map<String, Double>> getLatencies();
+
+    /** Discard everything recorded so far */
+    void reset();
+}
@@ -0,0 +1,77 @@
+package org.labkey.embedded;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request latency histograms, keyed by endpoint (controller-action URL pattern) and status class. Recording is
+ * lock-free, so it's cheap enough to do for every request. Available from the "requestlatency" actuator endpoint on
+ * the management port and via JMX.
+ */
+@Endpoint(id = "requestlatency")
+public class RequestLatencyStatistics implements RequestLatencyMXBean
+{
+    public static final String OBJECT_NAME = "org.labkey:type=RequestLatency";
+
+    /** Bucket for everything past this many distinct keys, so unusual URLs can't grow the map without bound */
+    static final int MAX_KEYS = 1000;
+    static final String OTHER_KEY = "(other)";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<String, Histogram> _histograms = new ConcurrentHashMap<>();
+
+    void record(String endpoint, int status, long elapsedNanos)
+    {
+        String statusClass = " " + (status / 100) + "xx";
+        String key = endpoint + statusClass;
+        Histogram histogram = _histograms.get(key);
+        if (histogram == null)
+        {
+            if (_histograms.size() >= MAX_KEYS)
+                key = OTHER_KEY + statusClass;
+            // Values are microseconds. Three significant digits, resizing as needed to fit the largest value seen.
+            histogram = _histograms.computeIfAbsent(key, k -> new ConcurrentHistogram(3));
+        }
+        histogram.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(elapsedNanos)));
+    }
+
+    @Override
+    @ReadOperation
+    public Map<String, Map<String, Double>> getLatencies()
+    {
+        Map<String, Map<String, Double>> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : _histograms.entrySet())
+        {
+            // Take a consistent snapshot rather than reading percentiles while other threads are recording
+            Histogram histogram = entry.getValue().copy();
+            Map<String, Double> summary = new LinkedHashMap<>();
+            summary.put("count", (double) histogram.getTotalCount());
+            summary.put("mean", histogram.getMean() / 1000);
+            for (int i = 0; i < PERCENTILES.length; i++)
+            {
+                summary.put(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            summary.put("max", histogram.getMaxValue() / 1000.0);
+            result.put(entry.getKey(), summary);
+        }
+        return result;
+    }
+
+    @Override
+    @DeleteOperation
+    public void reset()
+    {
+        _histograms.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package org.labkey.embedded;
+
+import jakarta.servlet.ServletException;
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Records each request's processing time in {@link RequestLatencyStatistics}. Like the access log valves, this gets
+ * the timing from Tomcat once the response is complete, so async requests and error responses are included.
+ */
+class RequestLatencyValve extends ValveBase implements AccessLog
+{
+    private static final Log LOG = LogFactory.getLog(RequestLatencyValve.class);
+    private static final Set<String> ACTION_EXTENSIONS = Set.of("view", "api", "post");
+
+    private final RequestLatencyStatistics _statistics;
+    private boolean _requestAttributesEnabled;
+
+    RequestLatencyValve(RequestLatencyStatistics statistics)
+    {
+        super(true);
+        _statistics = statistics;
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(RequestLatencyStatistics.OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(_statistics, name);
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Unable to register " + RequestLatencyStatistics.OBJECT_NAME, e);
+        }
+        super.startInternal();
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException
+    {
+        super.stopInternal();
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(RequestLatencyStatistics.OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Unable to unregister " + RequestLatencyStatistics.OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException
+    {
+        getNext().invoke(request, response);
+    }
+
+    @Override
+    public void log(Request request, Response response, long time)
+    {
+        if (getState().isAvailable())
+        {
+            _statistics.record(getEndpoint(request), response.getStatus(), time);
+        }
+    }
+
+    /**
+     * Collapse the request's URL to a low-cardinality pattern. LabKey actions (both "container/controller-action.view"
+     * and the older "controller/container/action.view" style) become "controller-action.view", other files are grouped
+     * by extension, and special servlets such as "_webdav" by their first path segment.
+     */
+    static String getEndpoint(Request request)
+    {
+        String path = request.getDecodedRequestURI();
+        String contextPath = request.getContextPath();
+        if (path == null)
+            return RequestLatencyStatistics.OTHER_KEY;
+        if (contextPath != null && path.startsWith(contextPath))
+            path = path.substring(contextPath.length());
+
+        int lastSlash = path.lastIndexOf('/');
+        String name = path.substring(lastSlash + 1);
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+        {
+            String extension = name.substring(dot + 1);
+            if (ACTION_EXTENSIONS.contains(extension))
+            {
+                if (name.indexOf('-') > 0)
+                    return name;
+
+                // Older style, with the controller as the first path segment
+                int start = path.startsWith("/") ? 1 : 0;
+                int end = path.indexOf('/', start);
+                if (end > start && end < lastSlash + 1)
+                    return path.substring(start, end) + "-" + name;
+                return name;
+            }
+            if (extension.length() <= 10)
+                return "*." + extension;
+        }
+
+        if (path.startsWith("/_"))
+        {
+            int end = path.indexOf('/', 1);
+            return (end == -1 ? path : path.substring(0, end)) + "/*";
+        }
+        return RequestLatencyStatistics.OTHER_KEY;
+    }
+
+    @Override
+    public void setRequestAttributesEnabled(boolean requestAttributesEnabled)
+    {
+        _requestAttributesEnabled = requestAttributesEnabled;
+    }
+
+    @Override
+    public boolean getRequestAttributesEnabled()
+    {
+        return _requestAttributesEnabled;
+    }
+}
@@ -10,9 +10,16 @@
 
 import static org.labkey.embedded.LabKeyServer.ACCESS_TO_CONNECTION_ALLOWED_DEFAULT;
 import static org.labkey.embedded.LabKeyServer.MAX_IDLE_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.MAX_OPEN_PREPARED_STATEMENTS_DEFAULT;
 import static org.labkey.embedded.LabKeyServer.MAX_TOTAL_CONNECTIONS_DEFAULT;
 import static org.labkey.embedded.LabKeyServer.MAX_WAIT_MILLIS_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.MIN_EVICTABLE_IDLE_TIME_MILLIS_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.MIN_IDLE_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.POOL_PREPARED_STATEMENTS_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.REGISTER_CONNECTION_MBEAN_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.TIME_BETWEEN_EVICTION_RUNS_MILLIS_DEFAULT;
 import static org.labkey.embedded.LabKeyServer.VALIDATION_QUERY_DEFAULT;
+import static org.labkey.embedded.LabKeyServer.WARM_UP_CONNECTIONS_DEFAULT;
 
 public enum ResourceType
 {
@@ -28,6 +35,11 @@ protected Map<String, String> mergeWithDefaults(Map<String, String> props)
                     result.putIfAbsent("maxWaitMillis", MAX_WAIT_MILLIS_DEFAULT);
                     result.putIfAbsent("accessToUnderlyingConnectionAllowed", ACCESS_TO_CONNECTION_ALLOWED_DEFAULT);
                     result.putIfAbsent("validationQuery", VALIDATION_QUERY_DEFAULT);
+                    result.putIfAbsent("poolPreparedStatements", POOL_PREPARED_STATEMENTS_DEFAULT);
+                    result.putIfAbsent("maxOpenPreparedStatements", MAX_OPEN_PREPARED_STATEMENTS_DEFAULT);
+                    result.putIfAbsent("minIdle", MIN_IDLE_DEFAULT);
+                    result.putIfAbsent("timeBetweenEvictionRunsMillis", TIME_BETWEEN_EVICTION_RUNS_MILLIS_DEFAULT);
+                    result.putIfAbsent("minEvictableIdleTimeMillis", MIN_EVICTABLE_IDLE_TIME_MILLIS_DEFAULT);
                     return result;
                 }
 
@@ -44,6 +56,20 @@ public void addResource(String name, Map<String, String> props, StandardContext
                     {
                         context.addParameter(name + ":LogQueries", logQueries);
                     }
+                    QueryTimingConnectionFactory.register(name, props);
+
+                    // Fill in the settings for the chosen validation strategy before the generic defaults are applied
+                    ValidationStrategy validationStrategy = ValidationStrategy.get(name, props.remove("validationStrategy"));
+                    props.putIfAbsent("validationQuery", validationStrategy.getValidationQuery());
+                    validationStrategy.getProperties().forEach(props::putIfAbsent);
+
+                    String warmUpConnections = props.remove("warmUpConnections");
+                    DataSourceWarmUp.register(context, name, warmUpConnections == null ? WARM_UP_CONNECTIONS_DEFAULT : warmUpConnections, props.getOrDefault("maxWaitMillis", MAX_WAIT_MILLIS_DEFAULT));
+                    PoolSizeController.register(context, name, props);
+
+                    // Publish the pool's state in JMX, tagged with the data source's names
+                    props.putIfAbsent("jmxName", DataSourceStatistics.getJmxName(name, displayName));
+                    props.putIfAbsent("registerConnectionMBean", REGISTER_CONNECTION_MBEAN_DEFAULT);
 
                     super.addResource(name, props, context);
                 }
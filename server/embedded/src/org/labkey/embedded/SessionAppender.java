@@ -35,7 +35,6 @@
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +56,8 @@ protected SessionAppender(String name, Filter filter, Layout<? extends Serializa
 
     static class AppenderInfo implements Serializable
     {
+        private static final long serialVersionUID = 1L;
+
         AppenderInfo(String key, boolean on)
         {
             this.key = key;
@@ -64,20 +65,26 @@ static class AppenderInfo implements Serializable
         }
 
         final String key;
-        boolean on;
-        final Map<LogEvent, Integer> eventIdMap = Collections.synchronizedMap(new LinkedHashMap<>()
+        volatile boolean on;
+        // Bounded in both count and size, as a safeguard against runaway logging
+        final SessionLogBuffer events = new SessionLogBuffer();
+    }
+
+    /**
+     * An event as captured for the session. It's rendered when it's logged, since Log4j may reuse its LogEvent
+     * objects, and holds only what the UI displays.
+     */
+    public record LoggedEvent(int eventId, String level, String message, long timestamp) implements Serializable
+    {
+        /** @return rough heap footprint in bytes, for capping each session's buffer */
+        long estimatedSize()
         {
-            // Safeguard against runaway size.
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<LogEvent, Integer> eldest)
-            {
-                return size() > 1000;
-            }
-        });
-        int eventId=0;
+            return 64 + (message == null ? 0 : 2L * message.length());
+        }
     }
 
     private static final ThreadLocal<AppenderInfo> localInfo = new ThreadLocal<>();
+    private static volatile boolean warnedAboutAsync = false;
 
     // AppenderInfos are thread-local variables initialized with the user session. This Map allows background threads to share an
     // active session's appenderInfo to output logs to that session's SessionAppender. When the session is ended, the
@@ -106,10 +113,23 @@ public static String getAppendingInfoKey(HttpServletRequest request)
     @Override
     public void append(LogEvent event)
     {
+        // The session is identified by a thread-local, so events must be captured on the thread that logged them. If
+        // an asynchronous logger or appender hands them to another thread, don't attribute them to whatever session
+        // that thread happens to belong to.
+        if (event.getThreadId() != Thread.currentThread().getId())
+        {
+            if (!warnedAboutAsync)
+            {
+                warnedAboutAsync = true;
+                LOGGER.warn("SessionAppender {} received an event from another thread. It must be referenced directly by loggers, not through an asynchronous logger or appender.", getName());
+            }
+            return;
+        }
+
         AppenderInfo info = localInfo.get();
         if (null == info || !info.on)
             return;
-        info.eventIdMap.put(event, ++info.eventId);
+        info.events.add(event.getLevel().toString(), event.getMessage().getFormattedMessage(), event.getTimeMillis());
     }
 
 
@@ -117,32 +137,36 @@ public void append(LogEvent event)
      * @return serialization-suitable list of events with eventId, level, message, and timestamp properties
      */
     public static List<Map<String, Object>> getLoggingEvents(HttpServletRequest request, Integer maxEventId)
+    {
+        List<LoggedEvent> events = getLoggedEvents(request, maxEventId == null ? 0 : maxEventId);
+        List<Map<String, Object>> result = new ArrayList<>(events.size());
+        for (LoggedEvent e : events)
+        {
+            Map<String, Object> m = new HashMap<>();
+            // We've historically returned these as strings
+            m.put("eventId", Integer.toString(e.eventId()));
+            m.put("level", e.level());
+            m.put("message", e.message());
+            m.put("timestamp", new Date(e.timestamp()));
+            result.add(m);
+        }
+
+        return result;
+    }
+
+    /**
+     * Incremental alternative to {@link #getLoggingEvents(HttpServletRequest, Integer)} for callers that poll: pass the
+     * highest eventId already seen to get just the events logged since. The cost is proportional to the number of new
+     * events, and the returned events are the immutable instances held by the session, so nothing is copied.
+     * @return events with IDs greater than afterEventId, oldest first
+     */
+    public static List<LoggedEvent> getLoggedEvents(HttpServletRequest request, int afterEventId)
     {
         AppenderInfo info = _getLoggingForSession(request);
         if (null == info)
             return Collections.emptyList();
 
-        // Lock the map to avoid concurrent modifications while we iterate
-        synchronized (info.eventIdMap)
-        {
-            List<Map<String, Object>> result = new ArrayList<>(info.eventIdMap.size());
-            for (Map.Entry<LogEvent, Integer> entry : info.eventIdMap.entrySet())
-            {
-                if (maxEventId == null || maxEventId < entry.getValue().intValue())
-                {
-                    LogEvent e = entry.getKey();
-                    Map<String, Object> m = new HashMap<>();
-                    // We've historically returned these as strings
-                    m.put("eventId", Integer.toString(entry.getValue()));
-                    m.put("level", e.getLevel().toString());
-                    m.put("message", e.getMessage().getFormattedMessage());
-                    m.put("timestamp", new Date(e.getTimeMillis()));
-                    result.add(m);
-                }
-            }
-
-            return result;
-        }
+        return info.events.getEvents(afterEventId);
     }
 
     public static void setLoggingForSession(HttpServletRequest request, boolean on)
@@ -0,0 +1,101 @@
+package org.labkey.embedded;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer of the log events captured for one session by {@link SessionAppender}. Events are
+ * kept in the slot given by their ID, so the buffer holds at most {@link #CAPACITY} of the most recent ones, and the
+ * oldest are also dropped once their estimated size passes {@link #MAX_BYTES}. That keeps each session's footprint
+ * predictable no matter how chatty the logging is.
+ */
+class SessionLogBuffer implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    static final int CAPACITY = 1024;
+    static final long MAX_BYTES = 1024 * 1024;
+    static final int MAX_MESSAGE_LENGTH = 16 * 1024;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final AtomicReferenceArray<SessionAppender.LoggedEvent> _slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicInteger _lastId = new AtomicInteger();
+    private final AtomicLong _bytes = new AtomicLong();
+    // Where the next eviction should start looking, so it doesn't rescan slots that are already empty
+    private final AtomicInteger _evictFrom = new AtomicInteger(1);
+
+    void add(String level, String message, long timestamp)
+    {
+        if (message != null && message.length() > MAX_MESSAGE_LENGTH)
+            message = message.substring(0, MAX_MESSAGE_LENGTH) + "...";
+
+        int id = _lastId.incrementAndGet();
+        SessionAppender.LoggedEvent event = new SessionAppender.LoggedEvent(id, level, message, timestamp);
+        int slot = id & MASK;
+        SessionAppender.LoggedEvent displaced;
+        do
+        {
+            displaced = _slots.get(slot);
+            // A thread that got its ID later already lapped us into this slot, so this event is too old to keep
+            if (displaced != null && displaced.eventId() > id)
+                return;
+        }
+        while (!_slots.compareAndSet(slot, displaced, event));
+
+        long bytes = _bytes.addAndGet(event.estimatedSize() - (displaced == null ? 0 : displaced.estimatedSize()));
+        if (bytes > MAX_BYTES)
+            evict(id);
+    }
+
+    /** Drop the oldest events, but never the one just added, until we're back under the byte cap */
+    private void evict(int newestId)
+    {
+        int candidate = Math.max(_evictFrom.get(), newestId - CAPACITY + 1);
+        while (_bytes.get() > MAX_BYTES && candidate < newestId)
+        {
+            int slot = candidate & MASK;
+            SessionAppender.LoggedEvent event = _slots.get(slot);
+            if (event != null && event.eventId() == candidate && _slots.compareAndSet(slot, event, null))
+                _bytes.addAndGet(-event.estimatedSize());
+            candidate++;
+        }
+        _evictFrom.accumulateAndGet(candidate, Math::max);
+    }
+
+    /**
+     * Since each event's slot follows from its ID, this reads only the slots for events newer than afterId, so polling
+     * for new events costs nothing when there aren't any. Never blocks, or is blocked by, threads adding events.
+     * @return the events still in the buffer with IDs greater than afterId, oldest first
+     */
+    List<SessionAppender.LoggedEvent> getEvents(int afterId)
+    {
+        int lastId = _lastId.get();
+        if (lastId <= afterId)
+            return List.of();
+
+        int firstId = Math.max(Math.max(1, afterId + 1), lastId - CAPACITY + 1);
+        List<SessionAppender.LoggedEvent> result = new ArrayList<>(lastId - firstId + 1);
+        for (int id = firstId; id <= lastId; id++)
+        {
+            SessionAppender.LoggedEvent event = _slots.get(id & MASK);
+            if (event == null || event.eventId() < id)
+            {
+                // Evicted, so skip it
+                if (event == null && id < _evictFrom.get())
+                    continue;
+                // Another thread has taken this ID but not stored its event yet. Stop here so that a caller polling
+                // with the last ID it saw picks it up next time rather than skipping past it.
+                break;
+            }
+            // Otherwise, skip slots that have been reused by an event added since we started
+            if (event.eventId() == id)
+                result.add(event);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package org.labkey.embedded;
+
+import org.labkey.bootstrap.ConfigException;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.labkey.embedded.LabKeyServer.VALIDATION_QUERY_DEFAULT;
+
+/**
+ * How a JDBC data source's pool checks that its connections still work, set via a data source's "validationStrategy"
+ * property. Each strategy translates into the DBCP settings that implement it; anything set explicitly on the data
+ * source takes precedence.
+ */
+public enum ValidationStrategy
+{
+    /** Run the validation query each time a connection is borrowed. Costs a round trip per borrow. */
+    query(VALIDATION_QUERY_DEFAULT, Map.of("testOnBorrow", "true")),
+    /**
+     * Call the driver's Connection.isValid() each time a connection is borrowed, timing out after
+     * validationQueryTimeout seconds. Usually a lighter-weight round trip than a query.
+     */
+    isValid("", Map.of("testOnBorrow", "true", "validationQueryTimeout", "5")),
+    /**
+     * Don't validate on borrow. Instead, the idle evictor validates every idle connection each
+     * timeBetweenEvictionRunsMillis, so a borrow only finds a dead connection if it failed since the last run.
+     */
+    idle("", Map.of("testOnBorrow", "false", "testWhileIdle", "true", "numTestsPerEvictionRun", "-1", "validationQueryTimeout", "5"));
+
+    private final String _validationQuery;
+    private final Map<String, String> _properties;
+
+    ValidationStrategy(String validationQuery, Map<String, String> properties)
+    {
+        _validationQuery = validationQuery;
+        _properties = properties;
+    }
+
+    /** @return the default validation query, or an empty string to have DBCP use Connection.isValid() instead */
+    public String getValidationQuery()
+    {
+        return _validationQuery;
+    }
+
+    /** @return the other DBCP properties that implement this strategy */
+    public Map<String, String> getProperties()
+    {
+        return _properties;
+    }
+
+    public static ValidationStrategy get(String name, String value) throws ConfigException
+    {
+        if (value == null || value.isBlank())
+        {
+            return query;
+        }
+
+        for (ValidationStrategy strategy : values())
+        {
+            if (strategy.name().equalsIgnoreCase(value.trim()))
+            {
+                return strategy;
+            }
+        }
+        throw new ConfigException("Resource configuration error: unknown validationStrategy '%s' for resource '%s'. Valid options are %s".formatted(value, name, Arrays.toString(values())));
+    }
+}